@@ -0,0 +1,87 @@
+package bench;
+
+import q1.ClientHandlerBenchmarks;
+import q2.DirectoryBenchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Ponto de entrada da suíte de benchmarks. Normalmente executado via bench/run.sh.
+ *
+ * Opções:
+ *   -f <regex>   executa apenas os casos cujo nome contém a expressão
+ *   -t <n,m,...> quantidades de threads (padrão 1,4)
+ *   -wi <n>      iterações de aquecimento (padrão 3)
+ *   -i <n>       iterações medidas (padrão 5)
+ *   -ms <n>      duração de cada iteração em milissegundos (padrão 1000)
+ *   -l           apenas lista os casos
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = Pattern.compile("");
+        int[] threadCounts = {1, 4};
+        int warmup = 3;
+        int iterations = 5;
+        long iterationMillis = 1000;
+        boolean listOnly = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f": filter = Pattern.compile(args[++i]); break;
+                case "-t": threadCounts = parseList(args[++i]); break;
+                case "-wi": warmup = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-ms": iterationMillis = Long.parseLong(args[++i]); break;
+                case "-l": listOnly = true; break;
+                default:
+                    System.err.println("Opção desconhecida: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        List<Harness.Case> cases = new ArrayList<>();
+        CryptoBenchmarks.register(cases);
+        HexBenchmarks.register(cases);
+        EnvelopeBenchmarks.register(cases);
+        ClientHandlerBenchmarks.register(cases);
+        DirectoryBenchmarks.register(cases);
+
+        PrintStream results = System.out;
+        results.println("# JVM: " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+                + ", CPUs: " + Runtime.getRuntime().availableProcessors());
+        results.println("# aquecimento: " + warmup + " x " + iterationMillis + " ms, medição: " + iterations + " x " + iterationMillis + " ms");
+        results.printf("%-48s %7s %14s %12s %16s%n", "caso", "threads", "ns/op", "erro", "ops/s");
+
+        // os handlers registram cada comando no console; descartado para não poluir os resultados
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Harness harness = new Harness(warmup, iterations, iterationMillis);
+            for (Harness.Case benchCase : cases) {
+                if (!filter.matcher(benchCase.name).find()) continue;
+                for (int threads : threadCounts) {
+                    if (listOnly) {
+                        results.println(benchCase.name);
+                        break;
+                    }
+                    Harness.Result result = harness.run(benchCase, threads);
+                    results.printf("%-48s %7d %14.1f %12.1f %16.0f%n",
+                            benchCase.name, threads, result.nanosPerOp, result.error, result.opsPerSecond);
+                }
+            }
+        } finally {
+            System.setOut(results);
+        }
+    }
+
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) numbers[i] = Integer.parseInt(parts[i].trim());
+        return numbers;
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import common.ProtectionMode;
+import common.SecureChannelContext;
+import common.SecurityUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SecurityUtils (busca de provedor por chamada) contra SecureChannelContext (instâncias reutilizadas),
+ * em vários tamanhos de mensagem.
+ */
+public class CryptoBenchmarks {
+
+    static final byte[] KEY = "chave-secreta-super-segura".getBytes(StandardCharsets.UTF_8);
+    static final int[] SIZES = {64, 1024, 16384};
+
+    public static void register(List<Harness.Case> cases) {
+        SecureChannelContext context = new SecureChannelContext(KEY);
+
+        for (int size : SIZES) {
+            byte[] plain = payload(size);
+
+            cases.add(new Harness.Case("crypto.SecurityUtils.hmac/" + size, () -> () -> SecurityUtils.calculateHmac(KEY, plain).length));
+            cases.add(new Harness.Case("crypto.SecurityUtils.encrypt/" + size, () -> () -> SecurityUtils.encrypt(KEY, plain).length));
+            cases.add(new Harness.Case("crypto.SecurityUtils.decrypt/" + size, () -> {
+                byte[] encrypted = SecurityUtils.encrypt(KEY, plain);
+                return () -> SecurityUtils.decrypt(KEY, encrypted).length;
+            }));
+
+            cases.add(new Harness.Case("crypto.context.hmac/" + size, () -> () -> context.hmac(plain).length));
+            cases.add(new Harness.Case("crypto.context.encrypt/" + size, () -> () -> context.encrypt(plain).length));
+            cases.add(new Harness.Case("crypto.context.decrypt/" + size, () -> {
+                byte[] encrypted = context.encrypt(plain);
+                return () -> context.decrypt(encrypted).length;
+            }));
+
+            for (ProtectionMode mode : ProtectionMode.values()) {
+                cases.add(new Harness.Case("crypto.context.seal." + mode + "/" + size, () -> {
+                    byte[] out = new byte[context.sealedLength(mode, size)];
+                    return () -> context.seal(mode, plain, 0, plain.length, out, 0);
+                }));
+                cases.add(new Harness.Case("crypto.context.open." + mode + "/" + size, () -> {
+                    byte[] sealed = context.seal(mode, plain);
+                    byte[] out = new byte[size + 16];
+                    return () -> context.open(mode, sealed, 0, sealed.length, out, 0);
+                }));
+            }
+        }
+    }
+
+    static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
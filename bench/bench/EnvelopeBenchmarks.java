@@ -0,0 +1,67 @@
+package bench;
+
+import common.BufferPool;
+import common.FrameCodec;
+import common.ProtectionMode;
+import common.SecureChannelContext;
+import common.WireFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Ciclo completo de uma mensagem em memória: selar, enquadrar, ler o quadro, verificar e abrir.
+ */
+public class EnvelopeBenchmarks {
+
+    private static final String COMMAND = "RESOLVE servidor1";
+
+    public static void register(List<Harness.Case> cases) {
+        SecureChannelContext context = new SecureChannelContext(CryptoBenchmarks.KEY);
+
+        cases.add(envelope(context, WireFormat.TEXT, ProtectionMode.AES_HMAC));
+        cases.add(envelope(context, WireFormat.BINARY, ProtectionMode.AES_HMAC));
+        cases.add(envelope(context, WireFormat.BINARY, ProtectionMode.AES_GCM));
+    }
+
+    private static Harness.Case envelope(SecureChannelContext context, WireFormat format, ProtectionMode mode) {
+        BufferPool pool = BufferPool.SHARED;
+        return new Harness.Case("envelope." + format + "." + mode, () -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(buffer);
+            return () -> {
+                buffer.reset();
+                byte[] plain = COMMAND.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer sealed = pool.acquire(context.sealedLength(mode, plain.length));
+                int sealedLength = context.seal(mode, plain, 0, plain.length, sealed.array(), 0);
+                if (format == WireFormat.BINARY) {
+                    FrameCodec.writeFrame(out, mode, sealed.array(), 0, sealedLength);
+                } else {
+                    FrameCodec.writeTextLine(out, sealed.array(), 0, sealedLength, pool);
+                }
+                pool.release(sealed);
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+                ProtectionMode receivedMode = mode;
+                ByteBuffer received;
+                if (format == WireFormat.BINARY) {
+                    receivedMode = FrameCodec.readFrameType(in);
+                    received = FrameCodec.readFrameBody(in, pool);
+                } else {
+                    received = FrameCodec.readTextLine(in, pool);
+                }
+                ByteBuffer opened = pool.acquire(received.limit());
+                int length = context.open(receivedMode, received.array(), 0, received.limit(), opened.array(), 0);
+                String message = new String(opened.array(), 0, length, StandardCharsets.UTF_8);
+                pool.release(opened);
+                pool.release(received);
+                return message.length();
+            };
+        });
+    }
+}
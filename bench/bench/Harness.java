@@ -0,0 +1,123 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Harness mínimo de microbenchmarks: iterações de aquecimento e de medição com duração fixa,
+ * executadas em N threads, cada uma com sua própria instância da operação.
+ */
+public class Harness {
+
+    public interface Operation {
+        // retorna um valor qualquer, consumido para que o JIT não elimine o trabalho
+        long run() throws Exception;
+    }
+
+    public interface OperationFactory {
+        Operation create() throws Exception;
+    }
+
+    public static final class Case {
+        final String name;
+        final OperationFactory factory;
+
+        public Case(String name, OperationFactory factory) {
+            this.name = name;
+            this.factory = factory;
+        }
+    }
+
+    public static final class Result {
+        final double nanosPerOp;
+        final double error;
+        final double opsPerSecond;
+
+        Result(double nanosPerOp, double error, double opsPerSecond) {
+            this.nanosPerOp = nanosPerOp;
+            this.error = error;
+            this.opsPerSecond = opsPerSecond;
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationMillis;
+
+    private volatile long sink;
+
+    public Harness(int warmupIterations, int measureIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    public Result run(Case benchCase, int threads) throws Exception {
+        List<Operation> operations = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) operations.add(benchCase.factory.create());
+
+        for (int i = 0; i < warmupIterations; i++) iteration(operations);
+
+        double[] samples = new double[measureIterations];
+        double totalOpsPerSecond = 0;
+        for (int i = 0; i < measureIterations; i++) {
+            long[] counts = iteration(operations);
+            long ops = 0;
+            for (long count : counts) ops += count;
+            double seconds = iterationMillis / 1000.0;
+            // tempo médio por operação visto por cada thread
+            samples[i] = (threads * iterationMillis * 1_000_000.0) / ops;
+            totalOpsPerSecond += ops / seconds;
+        }
+        double mean = 0;
+        for (double sample : samples) mean += sample;
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) variance += (sample - mean) * (sample - mean);
+        double error = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+        return new Result(mean, error, totalOpsPerSecond / measureIterations);
+    }
+
+    private long[] iteration(List<Operation> operations) throws Exception {
+        int threads = operations.size();
+        long[] counts = new long[threads];
+        Throwable[] failures = new Throwable[threads];
+        AtomicBoolean running = new AtomicBoolean(true);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        List<Thread> workers = new ArrayList<>(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            Thread worker = new Thread(() -> {
+                Operation op = operations.get(index);
+                long count = 0;
+                long local = 0;
+                try {
+                    start.await();
+                    while (running.get()) {
+                        for (int i = 0; i < 64; i++) local += op.run();
+                        count += 64;
+                    }
+                } catch (Throwable e) {
+                    failures[index] = e;
+                }
+                counts[index] = count;
+                sink += local;
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.await();
+        Thread.sleep(iterationMillis);
+        running.set(false);
+        for (Thread worker : workers) worker.join();
+
+        for (Throwable failure : failures) {
+            if (failure != null) throw new IllegalStateException("Falha no benchmark", failure);
+        }
+        return counts;
+    }
+}
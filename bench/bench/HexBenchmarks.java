@@ -0,0 +1,51 @@
+package bench;
+
+import common.ConverterUtils;
+
+import java.util.List;
+
+/**
+ * Ida e volta hexadecimal: implementação anterior (String.format / Character.digit)
+ * contra o codec por tabela, com e sem buffers do chamador.
+ */
+public class HexBenchmarks {
+
+    static final int[] SIZES = {32, 4096};
+
+    public static void register(List<Harness.Case> cases) {
+        for (int size : SIZES) {
+            byte[] data = CryptoBenchmarks.payload(size);
+
+            cases.add(new Harness.Case("hex.legacy.roundTrip/" + size, () -> () -> legacyHex2Bytes(legacyBytes2Hex(data)).length));
+            cases.add(new Harness.Case("hex.table.roundTrip/" + size, () -> () -> ConverterUtils.hex2Bytes(ConverterUtils.bytes2Hex(data)).length));
+            cases.add(new Harness.Case("hex.table.buffers.roundTrip/" + size, () -> {
+                byte[] ascii = new byte[size * 2];
+                byte[] decoded = new byte[size];
+                return () -> {
+                    int encoded = ConverterUtils.encode(data, 0, size, ascii, 0);
+                    return ConverterUtils.decode(ascii, 0, encoded, decoded, 0);
+                };
+            }));
+        }
+    }
+
+    // implementações anteriores, mantidas apenas como referência de comparação
+
+    static String legacyBytes2Hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    static byte[] legacyHex2Bytes(String hexString) {
+        int len = hexString.length();
+        byte[] data = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            data[i / 2] = (byte) ((Character.digit(hexString.charAt(i), 16) << 4)
+                    + Character.digit(hexString.charAt(i + 1), 16));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,12 @@
+#!/bin/sh
+# Compila src/ e bench/ e executa o gerador de carga contra servidores no loopback.
+# Uso: bench/loadgen.sh -s dns|calc|ring [-m closed|open] [-r ops/s] [-c 4] [-d 10] [-w 2] ...
+set -e
+cd "$(dirname "$0")/.."
+
+OUT=out/loadgen
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -encoding UTF-8 -d "$OUT" $(find src bench -name '*.java')
+
+exec java -Xms512m -Xmx512m -XX:+UseParallelGC -cp "$OUT" loadgen.LoadGenerator "$@"
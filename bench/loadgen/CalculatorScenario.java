@@ -0,0 +1,114 @@
+package loadgen;
+
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import q2.DirectoryServer;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fluxo do CalculatorClient: DISCOVER_ALL no diretório na primeira vez que a conexão simulada usa
+ * uma operação, escolha local em round robin entre os servidores devolvidos, e a operação enviada
+ * por uma conexão persistente com o servidor de cálculo escolhido, aberta no primeiro uso e
+ * mantida até o fim da sessão (o servidor atende várias mensagens por conexão).
+ *
+ * O host devolvido pelo diretório é substituído pelo host alvo, de modo que a carga fique no
+ * loopback mesmo que os servidores tenham se registrado com outro endereço.
+ */
+class CalculatorScenario implements Scenario {
+
+    private static final String[] OPERATIONS = {"SOMA", "SUBTRACAO", "MULTIPLICACAO", "DIVISAO"};
+
+    private final String host;
+    private final int directoryPort;
+    private final SecureChannelContext context = new SecureChannelContext(DirectoryServer.SHARED_SECRET_KEY);
+
+    CalculatorScenario(String host, int directoryPort) {
+        this.host = host;
+        this.directoryPort = directoryPort;
+    }
+
+    // registra no diretório servidores de cálculo locais, para quando eles não conseguem se registrar sozinhos
+    void register(int[] calculatorPorts) throws Exception {
+        try (Socket socket = new Socket(host, directoryPort);
+             SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, context)) {
+            for (int calculatorPort : calculatorPorts) {
+                for (String operation : OPERATIONS) {
+                    pipeline.send("REGISTER " + operation + " " + host + ":" + calculatorPort);
+                    Scenario.checkResponse(pipeline.receive());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Session open() throws Exception {
+        Socket socket = new Socket(host, directoryPort);
+        socket.setTcpNoDelay(true);
+        SecureMessagePipeline directory = SecureMessagePipeline.forClient(socket, context);
+        return new Session() {
+            private final Map<String, int[]> discovered = new HashMap<>(); // portas por operação
+            private final Map<Integer, SecureMessagePipeline> calculators = new HashMap<>();
+            private int next;
+
+            @Override
+            public void execute() throws Exception {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String operation = OPERATIONS[random.nextInt(OPERATIONS.length)];
+
+                int[] ports = discovered.get(operation);
+                if (ports == null) {
+                    ports = discover(operation);
+                    discovered.put(operation, ports);
+                }
+                int calculatorPort = ports[Math.floorMod(next++, ports.length)];
+
+                SecureMessagePipeline calculator = calculators.get(calculatorPort);
+                if (calculator == null) {
+                    Socket calcSocket = new Socket(host, calculatorPort);
+                    calcSocket.setTcpNoDelay(true);
+                    calculator = SecureMessagePipeline.forClient(calcSocket, context);
+                    calculators.put(calculatorPort, calculator);
+                }
+                String response;
+                try {
+                    calculator.send(operation + " " + random.nextInt(1000) + " " + (1 + random.nextInt(1000)));
+                    response = calculator.receive();
+                } catch (IOException e) {
+                    calculators.remove(calculatorPort).close();
+                    throw e;
+                }
+                if (response == null) calculators.remove(calculatorPort).close(); // reaberta na próxima operação
+                Scenario.checkResponse(response);
+            }
+
+            // "OK;<versão>;end1;end2...": só a porta de cada endereço interessa
+            private int[] discover(String operation) throws Exception {
+                directory.send("DISCOVER_ALL " + operation);
+                String response = directory.receive();
+                Scenario.checkResponse(response);
+                String[] parts = response.split(";");
+                int[] ports = new int[parts.length - 2];
+                for (int i = 0; i < ports.length; i++) {
+                    String address = parts[i + 2];
+                    ports[i] = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+                }
+                return ports;
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (SecureMessagePipeline calculator : calculators.values()) calculator.close();
+                directory.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,59 @@
+package loadgen;
+
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import q1.MiniDNSServer;
+
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RESOLVE/UPDATE no MiniDNS, cada conexão simulada com sua própria conexão persistente.
+ * As atualizações usam apenas os nomes que o servidor permite alterar.
+ */
+class DnsScenario implements Scenario {
+
+    private static final String[] UPDATABLE = {"servidor1", "servidor4", "servidor9"};
+
+    private final String host;
+    private final int port;
+    private final int updatePercent;
+    private final SecureChannelContext context = new SecureChannelContext(MiniDNSServer.SHARED_SECRET_KEY);
+
+    DnsScenario(String host, int port, int updatePercent) {
+        this.host = host;
+        this.port = port;
+        this.updatePercent = updatePercent;
+    }
+
+    @Override
+    public Session open() throws Exception {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, context);
+        return new Session() {
+            @Override
+            public void execute() throws Exception {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String command;
+                if (random.nextInt(100) < updatePercent) {
+                    command = "UPDATE " + UPDATABLE[random.nextInt(UPDATABLE.length)]
+                            + " 10.0." + random.nextInt(256) + "." + random.nextInt(256);
+                } else {
+                    command = "RESOLVE servidor" + (1 + random.nextInt(10));
+                }
+                pipeline.send(command);
+                Scenario.checkResponse(pipeline.receive());
+            }
+
+            @Override
+            public void close() throws java.io.IOException {
+                pipeline.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
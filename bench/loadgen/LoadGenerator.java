@@ -0,0 +1,272 @@
+package loadgen;
+
+import common.LatencyHistogram;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gerador de carga para os servidores, reutilizando o SecureMessagePipeline dos clientes.
+ * Normalmente executado via bench/loadgen.sh, com os servidores já no ar na mesma máquina.
+ *
+ * Modos:
+ *   closed  cada conexão envia a próxima operação assim que recebe a resposta (mais o tempo
+ *           de espera -think). As latências são corrigidas para omissão coordenada com o
+ *           intervalo esperado -ei (padrão: latência média + espera).
+ *   open    as chegadas seguem uma taxa fixa (-r) independente das respostas; a latência é
+ *           medida a partir do instante planejado, então a fila acumulada quando o servidor
+ *           atrasa entra na conta.
+ *
+ * Opções:
+ *   -s dns|calc|ring   cenário (padrão dns)
+ *   -h <host>          host alvo, obrigatoriamente de loopback (padrão 127.0.0.1)
+ *   -p <porta>         porta do MiniDNS, do diretório ou do nó de entrada do anel
+ *   -c <n>             conexões simultâneas (padrão 4)
+ *   -m closed|open     modo (padrão closed)
+ *   -r <ops/s>         taxa total no modo open
+ *   -think <ms>        espera entre operações no modo closed (padrão 0)
+ *   -ei <us>           intervalo esperado para a correção no modo closed
+ *   -d <s>             duração da medição (padrão 10)
+ *   -w <s>             aquecimento, descartado (padrão 2)
+ *   -u <%>             dns: porcentagem de UPDATE (padrão 10)
+ *   -register <p,...>  calc: registra no diretório servidores de cálculo locais nessas portas
+ *   -files <n>         ring: arquivos buscados, arquivo1..n (padrão 30)
+ *   -dir HORARIO|ANTIHORARIO  ring: sentido da busca (padrão HORARIO)
+ *   -timeout <ms>      ring: tempo máximo de espera pelo FOUND (padrão 5000)
+ */
+public class LoadGenerator {
+
+    private final Scenario scenario;
+    private final int connections;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    private final LatencyHistogram service = new LatencyHistogram();  // do envio real até a resposta
+    private final LatencyHistogram response = new LatencyHistogram(); // do envio planejado até a resposta (open)
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile String lastError;
+
+    private LoadGenerator(Scenario scenario, int connections, long warmupNanos, long durationNanos) {
+        this.scenario = scenario;
+        this.connections = connections;
+        this.warmupNanos = warmupNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String scenarioName = "dns";
+        String host = "127.0.0.1";
+        int port = -1;
+        int connections = 4;
+        String mode = "closed";
+        double rate = 0;
+        long thinkMillis = 0;
+        long expectedMicros = -1;
+        long durationSeconds = 10;
+        long warmupSeconds = 2;
+        int updatePercent = 10;
+        int[] register = new int[0];
+        int files = 30;
+        String direction = "HORARIO";
+        long timeoutMillis = 5000;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-s": scenarioName = args[++i]; break;
+                case "-h": host = args[++i]; break;
+                case "-p": port = Integer.parseInt(args[++i]); break;
+                case "-c": connections = Integer.parseInt(args[++i]); break;
+                case "-m": mode = args[++i]; break;
+                case "-r": rate = Double.parseDouble(args[++i]); break;
+                case "-think": thinkMillis = Long.parseLong(args[++i]); break;
+                case "-ei": expectedMicros = Long.parseLong(args[++i]); break;
+                case "-d": durationSeconds = Long.parseLong(args[++i]); break;
+                case "-w": warmupSeconds = Long.parseLong(args[++i]); break;
+                case "-u": updatePercent = Integer.parseInt(args[++i]); break;
+                case "-register": register = parsePorts(args[++i]); break;
+                case "-files": files = Integer.parseInt(args[++i]); break;
+                case "-dir": direction = args[++i].toUpperCase(); break;
+                case "-timeout": timeoutMillis = Long.parseLong(args[++i]); break;
+                default: usage("Opção desconhecida: " + args[i]);
+            }
+        }
+        if (!InetAddress.getByName(host).isLoopbackAddress()) {
+            usage("O gerador de carga só pode ser apontado para o loopback: " + host);
+        }
+        if (!mode.equals("closed") && !mode.equals("open")) usage("Modo inválido: " + mode);
+        if (mode.equals("open") && rate <= 0) usage("O modo open exige -r <ops/s>.");
+
+        Scenario scenario;
+        switch (scenarioName) {
+            case "dns":
+                scenario = new DnsScenario(host, port < 0 ? 12345 : port, updatePercent);
+                break;
+            case "calc":
+                CalculatorScenario calculator = new CalculatorScenario(host, port < 0 ? 12346 : port);
+                if (register.length > 0) calculator.register(register);
+                scenario = calculator;
+                break;
+            case "ring":
+                scenario = new RingScenario(host, port < 0 ? 9000 : port, files, direction, timeoutMillis);
+                break;
+            default:
+                usage("Cenário desconhecido: " + scenarioName);
+                return;
+        }
+
+        PrintStream results = System.out;
+        results.println("# cenário " + scenarioName + ", modo " + mode + ", " + connections + " conexões"
+                + (mode.equals("open") ? ", " + rate + " ops/s planejadas" : "")
+                + ", aquecimento " + warmupSeconds + " s, medição " + durationSeconds + " s");
+
+        // os clientes do protocolo não imprimem nada, mas o resto do processo fica em silêncio também
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        LoadGenerator generator = new LoadGenerator(scenario, connections,
+                TimeUnit.SECONDS.toNanos(warmupSeconds), TimeUnit.SECONDS.toNanos(durationSeconds));
+        try {
+            long backlog;
+            if (mode.equals("open")) {
+                backlog = generator.runOpen(rate);
+            } else {
+                backlog = 0;
+                generator.runClosed(TimeUnit.MILLISECONDS.toNanos(thinkMillis));
+            }
+
+            LatencyHistogram corrected;
+            if (mode.equals("open")) {
+                corrected = generator.response;
+            } else {
+                long expected = (expectedMicros >= 0)
+                        ? TimeUnit.MICROSECONDS.toNanos(expectedMicros)
+                        : (long) (generator.service.getMeanMicros() * 1000) + TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+                corrected = generator.service.copyCorrectedForCoordinatedOmission(expected);
+                results.printf("# correção de omissão coordenada com intervalo esperado de %.1f us%n", expected / 1000.0);
+            }
+            generator.report(results, corrected, backlog);
+        } finally {
+            System.setOut(results);
+            scenario.close();
+        }
+    }
+
+    private void runClosed(long thinkNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            workers.add(startWorker(i, session -> {
+                while (System.nanoTime() < end) {
+                    long begin = System.nanoTime();
+                    execute(session, begin, begin, measureFrom);
+                    if (thinkNanos > 0) LockSupport.parkNanos(thinkNanos);
+                }
+            }));
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+    // retorna as chegadas planejadas que não chegaram a ser atendidas
+    private long runOpen(double rate) throws InterruptedException {
+        BlockingQueue<Long> arrivals = new LinkedBlockingQueue<>();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        double intervalNanos = 1e9 / rate;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            workers.add(startWorker(i, session -> {
+                while (true) {
+                    Long intended = arrivals.poll(10, TimeUnit.MILLISECONDS);
+                    if (intended == null) {
+                        if (System.nanoTime() >= end) return;
+                        continue;
+                    }
+                    if (System.nanoTime() >= end) return;
+                    execute(session, intended, System.nanoTime(), measureFrom);
+                }
+            }));
+        }
+
+        // agenda as chegadas a partir do relógio, sem esperar pelas respostas
+        for (long k = 0; ; k++) {
+            long intended = start + (long) (k * intervalNanos);
+            if (intended >= end) break;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            arrivals.add(intended);
+        }
+        for (Thread worker : workers) worker.join();
+        return arrivals.size();
+    }
+
+    private void execute(Scenario.Session session, long intended, long begin, long measureFrom) {
+        try {
+            session.execute();
+            long done = System.nanoTime();
+            if (intended < measureFrom) return;
+            service.record(done - begin);
+            response.record(done - intended);
+            completed.increment();
+        } catch (Exception e) {
+            if (intended >= measureFrom) errors.increment();
+            lastError = e.toString();
+        }
+    }
+
+    private interface WorkerLoop {
+        void run(Scenario.Session session) throws Exception;
+    }
+
+    private Thread startWorker(int index, WorkerLoop loop) {
+        Thread thread = new Thread(() -> {
+            try (Scenario.Session session = scenario.open()) {
+                loop.run(session);
+            } catch (Exception e) {
+                lastError = "conexão " + index + ": " + e;
+                errors.increment();
+            }
+        }, "loadgen-" + index);
+        thread.start();
+        return thread;
+    }
+
+    private void report(PrintStream out, LatencyHistogram corrected, long backlog) {
+        double seconds = durationNanos / 1e9;
+        out.printf("operações: %d (%.1f ops/s), erros: %d, não atendidas: %d%n",
+                completed.sum(), completed.sum() / seconds, errors.sum(), backlog);
+        if (lastError != null) out.println("último erro: " + lastError);
+        out.printf("%-22s %10s %10s %10s %10s %10s%n", "latência (us)", "média", "p50", "p99", "p999", "max");
+        print(out, "corrigida", corrected);
+        print(out, "serviço", service);
+    }
+
+    private static void print(PrintStream out, String label, LatencyHistogram histogram) {
+        out.printf("%-22s %10.1f %10.1f %10.1f %10.1f %10.1f%n", label, histogram.getMeanMicros(),
+                histogram.getP50Micros(), histogram.getP99Micros(), histogram.getP999Micros(), histogram.getMaxMicros());
+    }
+
+    private static int[] parsePorts(String list) {
+        String[] parts = list.split(",");
+        int[] ports = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) ports[i] = Integer.parseInt(parts[i].trim());
+        return ports;
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Uso: bench/loadgen.sh -s dns|calc|ring [-m closed|open] [-r ops/s] [-c conexões] [-d s] ...");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,107 @@
+package loadgen;
+
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import q3.P2PNode;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SEARCH no anel P2P. O gerador se apresenta como nó de origem, escutando no loopback, e a
+ * operação termina quando o FOUND correspondente chega. Como o protocolo não tem identificador
+ * de requisição, o FOUND de um arquivo é atribuído à busca mais antiga pendente por ele.
+ */
+class RingScenario implements Scenario {
+
+    private final String host;
+    private final int entryPort;
+    private final int files;
+    private final String direction;
+    private final long timeoutMillis;
+    private final SecureChannelContext context = new SecureChannelContext(P2PNode.SHARED_SECRET_KEY);
+    private final Map<String, Queue<CompletableFuture<Void>>> pending = new ConcurrentHashMap<>();
+    private final ServerSocket listener;
+
+    RingScenario(String host, int entryPort, int files, String direction, long timeoutMillis) throws IOException {
+        this.host = host;
+        this.entryPort = entryPort;
+        this.files = files;
+        this.direction = direction;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(this::acceptLoop, "loadgen-ring-listener");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptLoop() {
+        while (!listener.isClosed()) {
+            try {
+                Socket socket = listener.accept();
+                Thread reader = new Thread(() -> receiveFound(socket), "loadgen-ring-found");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // cada nó abre uma conexão nova por mensagem
+    private void receiveFound(Socket socket) {
+        try (SecureMessagePipeline pipeline = SecureMessagePipeline.forServer(socket, context)) {
+            String message = pipeline.receive();
+            if (message == null || !message.startsWith("FOUND;")) return;
+            Queue<CompletableFuture<Void>> waiters = pending.get(message.split(";")[1]);
+            CompletableFuture<Void> waiter = (waiters != null) ? waiters.poll() : null;
+            if (waiter != null) waiter.complete(null);
+        } catch (Exception e) {
+            // mensagem inválida: a busca correspondente expira
+        }
+    }
+
+    @Override
+    public Session open() {
+        String origin = listener.getInetAddress().getHostAddress();
+        int originPort = listener.getLocalPort();
+        return new Session() {
+            @Override
+            public void execute() throws Exception {
+                String file = "arquivo" + (1 + ThreadLocalRandom.current().nextInt(files));
+                CompletableFuture<Void> found = new CompletableFuture<>();
+                Queue<CompletableFuture<Void>> waiters = pending.computeIfAbsent(file, k -> new ConcurrentLinkedQueue<>());
+                waiters.add(found);
+
+                try (Socket socket = new Socket(host, entryPort);
+                     SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, context)) {
+                    pipeline.send("SEARCH;" + file + ";LOADGEN;" + origin + ";" + originPort + ";" + direction);
+                }
+                try {
+                    found.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                } finally {
+                    waiters.remove(found);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+    }
+}
@@ -0,0 +1,22 @@
+package loadgen;
+
+import java.io.Closeable;
+
+/**
+ * Carga aplicada pelo LoadGenerator. Cada conexão simulada abre a sua Session e a
+ * executa repetidamente; uma execução é uma operação completa do ponto de vista do cliente.
+ */
+interface Scenario extends Closeable {
+
+    interface Session extends Closeable {
+        // lança exceção se a operação falhar ou o servidor responder com ERROR
+        void execute() throws Exception;
+    }
+
+    Session open() throws Exception;
+
+    static void checkResponse(String response) {
+        if (response == null) throw new IllegalStateException("Conexão encerrada pelo servidor.");
+        if (!response.startsWith("OK;")) throw new IllegalStateException(response);
+    }
+}
@@ -0,0 +1,44 @@
+package q1;
+
+import bench.Harness;
+import common.OffenderTable;
+import common.RateLimiter;
+import common.SecureChannelContext;
+import common.ServerMetrics;
+
+import java.util.List;
+
+/**
+ * ClientHandler.processCommand executado em processo, sem sockets.
+ */
+public class ClientHandlerBenchmarks {
+
+    public static void register(List<Harness.Case> cases) {
+        DnsStore store = DnsStore.inMemory();
+        for (int i = 1; i <= 10; i++) store.seed("servidor" + i, "192.168.0." + (i * 10));
+        SecureChannelContext context = new SecureChannelContext(MiniDNSServer.SHARED_SECRET_KEY);
+        ServerMetrics metrics = new ServerMetrics("bench");
+        DnsCommandProcessor processor = new DnsCommandProcessor(store, context, metrics);
+        OffenderTable offenders = new OffenderTable();
+        RateLimiter limiter = new RateLimiter(context);
+
+        cases.add(new Harness.Case("dns.processCommand.RESOLVE.hit", () -> {
+            ClientHandler handler = new ClientHandler(null, processor, context, metrics, offenders, limiter);
+            return () -> handler.processCommand("RESOLVE servidor2").length();
+        }));
+        cases.add(new Harness.Case("dns.processCommand.RESOLVE.miss", () -> {
+            ClientHandler handler = new ClientHandler(null, processor, context, metrics, offenders, limiter);
+            return () -> handler.processCommand("RESOLVE inexistente").length();
+        }));
+        cases.add(new Harness.Case("dns.processCommand.RESOLVE_MANY.10", () -> {
+            ClientHandler handler = new ClientHandler(null, processor, context, metrics, offenders, limiter);
+            String command = "RESOLVE_MANY servidor1 servidor2 servidor3 servidor4 servidor5"
+                    + " servidor6 servidor7 servidor8 servidor9 servidor10";
+            return () -> handler.processCommand(command).length();
+        }));
+        cases.add(new Harness.Case("dns.processCommand.UPDATE", () -> {
+            ClientHandler handler = new ClientHandler(null, processor, context, metrics, offenders, limiter);
+            return () -> handler.processCommand("UPDATE servidor1 192.168.0.111").length();
+        }));
+    }
+}
@@ -0,0 +1,68 @@
+package q1;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Memória por registro de cada RecordTable, com N nomes "hostN.exemplo" e endereços IPv4.
+ *
+ * Uso: java -Xmx4g -cp out/bench q1.RecordTableFootprint [registros] [map|compact|offheap]
+ * (padrão 10000000, todas as tabelas). Cada tabela é medida isolada, com o heap antes e depois
+ * da carga após GC; offheap informa também a memória direta.
+ */
+public class RecordTableFootprint {
+
+    public static void main(String[] args) throws Exception {
+        int records = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] tables = (args.length > 1) ? new String[]{args[1]} : new String[]{"map", "compact", "offheap"};
+        for (String table : tables) measure(table, records);
+    }
+
+    private static void measure(String table, int records) throws Exception {
+        System.setProperty(RecordTable.TABLE_PROPERTY, table);
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+
+        long start = System.nanoTime();
+        RecordTable store = RecordTable.fromProperties();
+        for (int i = 0; i < records; i++) {
+            store.put("host" + i + ".exemplo", CompactRecordTable.formatIpv4(0x0A000000 + i));
+        }
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+
+        // leituras aleatórias, só para mostrar que a tabela compacta não troca memória por latência
+        int lookups = 2_000_000;
+        int seed = 12345;
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            seed = seed * 1103515245 + 12345;
+            if (store.get("host" + ((seed >>> 1) % records) + ".exemplo") != null) found++;
+        }
+        long lookupNanos = (System.nanoTime() - start) / lookups;
+
+        System.out.printf("%-8s %,d registros: heap %,d MB (%.1f B/registro), direta %,d MB (%.1f B/registro), "
+                        + "carga %,d ms, get %d ns (%d encontrados)%n",
+                table, store.size(), heap >> 20, (double) heap / records, direct >> 20, (double) direct / records,
+                loadMillis, lookupNanos, found);
+        store = null;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,48 @@
+package q2;
+
+import bench.Harness;
+import common.OffenderTable;
+import common.SecureChannelContext;
+import common.ServerMetrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DirectoryHandler.processCommand e CalculationHandler.calculate executados em processo, sem sockets.
+ */
+public class DirectoryBenchmarks {
+
+    public static void register(List<Harness.Case> cases) {
+        Map<String, List<String>> serviceMap = new ConcurrentHashMap<>();
+        Map<String, Integer> roundRobinMap = new ConcurrentHashMap<>();
+        AtomicLong topologyVersion = new AtomicLong();
+        SecureChannelContext context = new SecureChannelContext(DirectoryServer.SHARED_SECRET_KEY);
+        ServerMetrics metrics = new ServerMetrics("bench");
+        OffenderTable offenders = new OffenderTable();
+
+        DirectoryHandler registrar = new DirectoryHandler(null, serviceMap, roundRobinMap, topologyVersion, context, metrics, offenders);
+        for (int port = 9001; port <= 9004; port++) {
+            registrar.processCommand("REGISTER SOMA 127.0.0.1:" + port);
+        }
+
+        cases.add(new Harness.Case("directory.processCommand.DISCOVER", () -> {
+            DirectoryHandler handler = new DirectoryHandler(null, serviceMap, roundRobinMap, topologyVersion, context, metrics, offenders);
+            return () -> handler.processCommand("DISCOVER SOMA").length();
+        }));
+        cases.add(new Harness.Case("directory.processCommand.DISCOVER_ALL", () -> {
+            DirectoryHandler handler = new DirectoryHandler(null, serviceMap, roundRobinMap, topologyVersion, context, metrics, offenders);
+            return () -> handler.processCommand("DISCOVER_ALL SOMA").length();
+        }));
+        cases.add(new Harness.Case("calculator.calculate.SOMA", () -> {
+            CalculationHandler handler = new CalculationHandler(null, context, metrics, offenders);
+            return () -> handler.calculate("SOMA 10 20").length();
+        }));
+        cases.add(new Harness.Case("calculator.calculate.DIVISAO", () -> {
+            CalculationHandler handler = new CalculationHandler(null, context, metrics, offenders);
+            return () -> handler.calculate("DIVISAO 355 113").length();
+        }));
+    }
+}
@@ -0,0 +1,13 @@
+#!/bin/sh
+# Compila src/ e bench/ e executa a suíte de benchmarks.
+# Uso: bench/run.sh [-f regex] [-t 1,4] [-wi 3] [-i 5] [-ms 1000] [-l]
+set -e
+cd "$(dirname "$0")/.."
+
+OUT=out/bench
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -encoding UTF-8 -d "$OUT" $(find src bench -name '*.java')
+
+# heap fixa e pré-alocada para reduzir variação entre execuções
+exec java -Xms1g -Xmx1g -XX:+AlwaysPreTouch -XX:+UseParallelGC -cp "$OUT" bench.BenchmarkSuite "$@"
@@ -0,0 +1,67 @@
+package common;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Posições de endereços de origem num vetor de tamanho fixo, sem lock: endereçamento aberto com
+ * sondagem curta a partir do hash do endereço. Quem usa guarda o estado de cada endereço em outro
+ * vetor com o mesmo índice (OffenderTable, RateLimiter).
+ */
+final class AddressSlots {
+
+    static final int SLOTS = 4096;
+    private static final int PROBES = 8;
+
+    private final AtomicLongArray keys = new AtomicLongArray(SLOTS);
+
+    static long keyOf(InetAddress address) {
+        long key = 1125899906842597L;
+        for (byte b : address.getAddress()) key = 31 * key + (b & 0xFF);
+        return key == 0 ? 1 : key;
+    }
+
+    boolean isOccupied(int slot) {
+        return keys.get(slot) != 0;
+    }
+
+    // posição já ocupada pelo endereço, ou -1
+    int find(long key) {
+        int home = home(key);
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & (SLOTS - 1);
+            if (keys.get(slot) == key) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Posição do endereço; ocupa uma livre ou uma cujo estado idle aceita (reset limpa o estado
+     * herdado), ou divide a primeira quando a vizinhança está cheia de endereços ativos.
+     */
+    int claim(long key, IntPredicate idle, IntConsumer reset) {
+        int home = home(key);
+        int reusable = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & (SLOTS - 1);
+            long current = keys.get(slot);
+            if (current == key) return slot;
+            if (current == 0 && keys.compareAndSet(slot, 0, key)) return slot;
+            if (keys.get(slot) == key) return slot;
+            if (reusable < 0 && idle.test(slot)) reusable = slot;
+        }
+        if (reusable < 0) return home;
+        long previous = keys.get(reusable);
+        if (keys.compareAndSet(reusable, previous, key)) reset.accept(reusable);
+        return reusable;
+    }
+
+    private static int home(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) (key & (SLOTS - 1));
+    }
+}
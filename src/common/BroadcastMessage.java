@@ -0,0 +1,77 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Mensagem enviada igual para muitas conexões (ex.: notificação de UPDATE).
+ *
+ * É selada uma única vez por modo de proteção e enquadrada uma única vez por formato; o quadro
+ * pronto é um array imutável compartilhado por todas as escritas, em vez de cifrar, autenticar e
+ * codificar em hex de novo para cada assinante. Todos os assinantes usam a mesma chave, então a
+ * mesma cifra (com o mesmo IV/nonce) só se repete para o mesmo texto: nada além da igualdade vaza.
+ */
+public final class BroadcastMessage {
+
+    private static final ProtectionMode[] MODES = ProtectionMode.values();
+
+    private final String message;
+    private final SecureChannelContext context;
+    private final BufferPool pool = BufferPool.SHARED;
+    // quadros prontos por formato e modo, criados sob demanda; nunca alterados depois de publicados
+    private final AtomicReferenceArray<byte[]> frames = new AtomicReferenceArray<>(WireFormat.values().length * MODES.length);
+    private final AtomicReferenceArray<byte[]> sealed = new AtomicReferenceArray<>(MODES.length);
+
+    public BroadcastMessage(String message, SecureChannelContext context) {
+        this.message = message;
+        this.context = context;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Quadro binário ou linha legada completa para o formato e o modo da conexão.
+     * O array é compartilhado e não deve ser alterado.
+     */
+    public byte[] frame(WireFormat format, ProtectionMode mode) throws GeneralSecurityException {
+        if (format == WireFormat.TEXT && mode != ProtectionMode.AES_HMAC) {
+            throw new IllegalStateException("O formato de texto só transporta " + ProtectionMode.AES_HMAC);
+        }
+        int index = format.ordinal() * MODES.length + mode.ordinal();
+        byte[] frame = frames.get(index);
+        if (frame != null) return frame;
+        synchronized (this) {
+            frame = frames.get(index);
+            if (frame == null) {
+                frame = encode(format, mode, sealed(mode));
+                frames.set(index, frame);
+            }
+            return frame;
+        }
+    }
+
+    // guardado por this
+    private byte[] sealed(ProtectionMode mode) throws GeneralSecurityException {
+        byte[] bytes = sealed.get(mode.ordinal());
+        if (bytes == null) {
+            ByteBuffer buffer = SecureMessagePipeline.sealMessage(context, mode, message, pool);
+            bytes = Arrays.copyOf(buffer.array(), buffer.limit());
+            pool.release(buffer);
+            sealed.set(mode.ordinal(), bytes);
+        }
+        return bytes;
+    }
+
+    private byte[] encode(WireFormat format, ProtectionMode mode, byte[] sealedBytes) {
+        ByteBuffer buffer = (format == WireFormat.BINARY)
+                ? FrameCodec.encodeFrame(mode, sealedBytes, 0, sealedBytes.length, pool)
+                : FrameCodec.encodeTextLine(sealedBytes, 0, sealedBytes.length, pool);
+        byte[] frame = Arrays.copyOf(buffer.array(), buffer.limit());
+        pool.release(buffer);
+        return frame;
+    }
+}
@@ -0,0 +1,128 @@
+package common;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execução dos handlers de conexão dos servidores bloqueantes (uma conexão, um handler até ela
+ * fechar), usada por todos os laços de accept.
+ *
+ * Modos:
+ *   virtual  uma thread virtual por conexão: milhares de conexões ociosas custam pouco e uma rajada
+ *            de conexões não cria threads do sistema
+ *   pool     threads do sistema em número fixo e uma fila limitada de conexões aguardando; acima
+ *            disso a conexão é recusada (fechada) ou o accept espera vaga. Cada thread atende uma
+ *            conexão até o fim, então threads limita as conexões atendidas ao mesmo tempo
+ *   legacy   uma thread do sistema nova por conexão, sem limite (o comportamento antigo)
+ *
+ * Em execução, na fila e recusadas por saturação vão para as métricas do servidor.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.exec.mode=virtual|pool|legacy  (padrão virtual)
+ *   seguranca.exec.threads=N       threads do modo pool (padrão 256)
+ *   seguranca.exec.queue=N         conexões aguardando thread no modo pool (padrão 256)
+ *   seguranca.exec.rejection=close|wait  pool cheio: fecha a conexão ou segura o accept (padrão close)
+ */
+public final class ConnectionExecutor {
+
+    public enum Mode { VIRTUAL, POOL, LEGACY }
+
+    private final Mode mode;
+    private final String name;
+    private final ServerMetrics metrics;
+    private final ExecutorService executor; // null no modo legacy
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger legacyIndex = new AtomicInteger();
+
+    /**
+     * @param name prefixo dos nomes das threads (ex.: "dns-conn")
+     */
+    public ConnectionExecutor(String name, ServerMetrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+        this.mode = Mode.valueOf(System.getProperty("seguranca.exec.mode", "virtual").toUpperCase());
+        switch (mode) {
+            case VIRTUAL:
+                this.queue = null;
+                this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+                break;
+            case POOL:
+                int threads = Integer.getInteger("seguranca.exec.threads", 256);
+                this.queue = new ArrayBlockingQueue<>(Math.max(1, Integer.getInteger("seguranca.exec.queue", 256)));
+                boolean waiting = "wait".equalsIgnoreCase(System.getProperty("seguranca.exec.rejection"));
+                AtomicInteger index = new AtomicInteger();
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+                        task -> new Thread(task, name + "-" + index.getAndIncrement()));
+                if (waiting) pool.setRejectedExecutionHandler((task, executor) -> waitForRoom(task));
+                this.executor = pool;
+                break;
+            default:
+                this.queue = null;
+                this.executor = null;
+        }
+        metrics.setExecutorGauges(running::get, this::getQueuedCount);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // conexões sendo atendidas agora
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    // conexões aceitas aguardando uma thread (só no modo pool)
+    public int getQueuedCount() {
+        return (queue != null) ? queue.size() : 0;
+    }
+
+    /**
+     * Atende a conexão com o handler. Retorna false se o pool está saturado: a conexão já foi
+     * fechada e contada nas métricas.
+     */
+    public boolean execute(Socket socket, Runnable handler) {
+        Runnable task = () -> {
+            running.incrementAndGet();
+            try {
+                handler.run();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        if (executor == null) {
+            new Thread(task, name + "-" + legacyIndex.getAndIncrement()).start();
+            return true;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.connectionSaturated();
+            try {
+                socket.close();
+            } catch (IOException closing) {
+                // já encerrado
+            }
+            return false;
+        }
+    }
+
+    // modo wait: o accept para até haver vaga, e as novas conexões esperam no backlog do sistema
+    private void waitForRoom(Runnable task) {
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrompido aguardando vaga no pool.", e);
+        }
+    }
+}
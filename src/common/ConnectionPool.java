@@ -0,0 +1,228 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conexões seguras reaproveitadas entre requisições, por "host:porta", para clientes que fazem
+ * uma requisição e esperam a resposta (diretório, calculadora).
+ *
+ * Uma requisição pega uma conexão ociosa do destino (ou abre uma), envia, recebe e a devolve.
+ * Antes de reutilizar uma conexão parada há mais de validateAfterMs, um teste de leitura de 1 ms
+ * confirma que o servidor não a fechou; se mesmo assim a conexão reaproveitada falhar, a
+ * requisição é repetida uma vez numa conexão nova, então os comandos enviados por aqui devem
+ * poder ser repetidos. Conexões ociosas há mais de idleMs são fechadas por uma thread de limpeza,
+ * e cada destino guarda no máximo maxIdle conexões ociosas. Uma resposta que não chega em
+ * readTimeoutMs (ex.: o servidor descartou a mensagem, chave errada) fecha a conexão e falha com
+ * SocketTimeoutException, sem nova tentativa.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.pool.maxIdle=N            conexões ociosas por destino (padrão 8)
+ *   seguranca.pool.idleMs=N             tempo ociosa antes de ser fechada (padrão 30000)
+ *   seguranca.pool.validateAfterMs=N    tempo ociosa a partir do qual é testada antes do uso (padrão 1000)
+ *   seguranca.pool.connectTimeoutMs=N   limite para abrir uma conexão (padrão 5000)
+ *   seguranca.pool.readTimeoutMs=N      limite de espera pela resposta (padrão 10000, 0 = sem limite)
+ */
+public class ConnectionPool {
+
+    private static final int MAX_IDLE = Integer.getInteger("seguranca.pool.maxIdle", 8);
+    private static final long IDLE_NANOS = Long.getLong("seguranca.pool.idleMs", 30_000L) * 1_000_000L;
+    private static final long VALIDATE_AFTER_NANOS = Long.getLong("seguranca.pool.validateAfterMs", 1_000L) * 1_000_000L;
+    private static final int CONNECT_TIMEOUT_MS = Integer.getInteger("seguranca.pool.connectTimeoutMs", 5_000);
+    private static final int READ_TIMEOUT_MS = Integer.getInteger("seguranca.pool.readTimeoutMs", 10_000);
+
+    private static final class Connection {
+        final String address;
+        final Socket socket;
+        final SecureMessagePipeline pipeline;
+        long idleSince; // System.nanoTime() ao voltar para o pool
+
+        Connection(String address, Socket socket, SecureMessagePipeline pipeline) {
+            this.address = address;
+            this.socket = socket;
+            this.pipeline = pipeline;
+        }
+
+        void close() {
+            try {
+                pipeline.close();
+            } catch (IOException e) {
+                // já encerrada
+            }
+        }
+    }
+
+    private final SecureChannelContext context;
+    private final Map<String, ArrayDeque<Connection>> idle = new ConcurrentHashMap<>(); // cada fila guardada por ela mesma
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public ConnectionPool(SecureChannelContext context) {
+        this.context = context;
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "pool-evict");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, IDLE_NANOS / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Envia o comando ao destino "host:porta" e devolve a resposta, ou null se o servidor encerrou
+     * a conexão sem responder. Lança SecurityException se a resposta não for autêntica.
+     */
+    public String request(String address, String command) throws IOException, GeneralSecurityException {
+        Connection connection = borrow(address);
+        boolean pooled = connection != null;
+        if (!pooled) connection = open(address);
+        while (true) {
+            String response;
+            try {
+                connection.pipeline.send(command);
+                response = connection.pipeline.receive();
+            } catch (SocketTimeoutException e) {
+                // o servidor recebeu e não respondeu: repetir só esperaria de novo
+                connection.close();
+                throw e;
+            } catch (IOException e) {
+                connection.close();
+                if (!pooled) throw e;
+                // o servidor fechou a conexão ociosa entre o teste e o envio: uma nova tentativa
+                connection = open(address);
+                pooled = false;
+                continue;
+            } catch (GeneralSecurityException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            if (response == null) {
+                connection.close();
+                if (!pooled) return null;
+                connection = open(address);
+                pooled = false;
+                continue;
+            }
+            release(connection);
+            return response;
+        }
+    }
+
+    // conexões abertas e requisições atendidas por uma conexão reaproveitada
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    // fecha as conexões ociosas
+    public void clear() {
+        for (ArrayDeque<Connection> queue : idle.values()) {
+            synchronized (queue) {
+                for (Connection connection : queue) connection.close();
+                queue.clear();
+            }
+        }
+    }
+
+    // a ociosa mais recente que ainda estiver viva, ou null
+    private Connection borrow(String address) {
+        ArrayDeque<Connection> queue = idle.get(address);
+        if (queue == null) return null;
+        while (true) {
+            Connection connection;
+            synchronized (queue) {
+                connection = queue.pollFirst();
+            }
+            if (connection == null) return null;
+            long idleFor = System.nanoTime() - connection.idleSince;
+            if (idleFor < IDLE_NANOS && (idleFor < VALIDATE_AFTER_NANOS || isAlive(connection))) {
+                reused.incrementAndGet();
+                return connection;
+            }
+            connection.close();
+        }
+    }
+
+    private Connection open(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) throw new IOException("Endereço inválido (esperado host:porta): " + address);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))),
+                    CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            opened.incrementAndGet();
+            return new Connection(address, socket, SecureMessagePipeline.forClient(socket, context));
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void release(Connection connection) {
+        connection.idleSince = System.nanoTime();
+        ArrayDeque<Connection> queue = idle.computeIfAbsent(connection.address, k -> new ArrayDeque<>());
+        synchronized (queue) {
+            if (queue.size() < MAX_IDLE) {
+                queue.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Uma conexão ociosa não tem nada a ler: fim do fluxo ou dados inesperados significam que não
+     * serve mais. A leitura é direto no socket, sem passar pelo buffer do canal, que está vazio.
+     */
+    private static boolean isAlive(Connection connection) {
+        Socket socket = connection.socket;
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) return false;
+        try {
+            socket.setSoTimeout(1);
+            try {
+                InputStream in = socket.getInputStream();
+                in.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (ArrayDeque<Connection> queue : idle.values()) {
+            synchronized (queue) {
+                Iterator<Connection> it = queue.iterator();
+                while (it.hasNext()) {
+                    Connection connection = it.next();
+                    if (now - connection.idleSince >= IDLE_NANOS) {
+                        it.remove();
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+}
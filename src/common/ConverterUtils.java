@@ -1,22 +1,157 @@
 package common;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Conversão hexadecimal baseada em tabelas.
+ *
+ * As variantes com buffers do chamador não criam Strings intermediárias;
+ * bytes2Hex e hex2Bytes são apenas invólucros sobre elas.
+ * Entradas mal formadas (tamanho ímpar ou caractere não hexadecimal) lançam IllegalArgumentException.
+ */
 public class ConverterUtils {
 
-    public static String bytes2Hex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b & 0xFF));
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
         }
-        return sb.toString();
+    }
+
+    public static String bytes2Hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, chars, 0);
+        return new String(chars);
     }
 
     public static byte[] hex2Bytes(String hexString) {
         int len = hexString.length();
+        checkEvenLength(len);
         byte[] data = new byte[len / 2];
+        decode(hexString, 0, len, data, 0);
+        return data;
+    }
+
+    // codificação
+
+    public static int encode(byte[] src, int off, int len, char[] dst, int dstOff) {
+        for (int i = 0; i < len; i++) {
+            int b = src[off + i] & 0xFF;
+            dst[dstOff++] = HEX_DIGITS[b >>> 4];
+            dst[dstOff++] = HEX_DIGITS[b & 0x0F];
+        }
+        return len * 2;
+    }
+
+    // escreve os dígitos como bytes ASCII
+    public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        for (int i = 0; i < len; i++) {
+            int b = src[off + i] & 0xFF;
+            dst[dstOff++] = (byte) HEX_DIGITS[b >>> 4];
+            dst[dstOff++] = (byte) HEX_DIGITS[b & 0x0F];
+        }
+        return len * 2;
+    }
+
+    // consome src.remaining() bytes e escreve os dígitos ASCII em dst
+    public static int encode(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        if (dst.remaining() < len * 2) throw new IllegalArgumentException("Buffer de destino insuficiente.");
+        while (src.hasRemaining()) {
+            int b = src.get() & 0xFF;
+            dst.put((byte) HEX_DIGITS[b >>> 4]);
+            dst.put((byte) HEX_DIGITS[b & 0x0F]);
+        }
+        return len * 2;
+    }
+
+    // decodificação
+    // os laços acumulam a validação e a conferem ao final, antes de retornar ao chamador
+
+    public static int decode(CharSequence src, int off, int len, byte[] dst, int dstOff) {
+        checkEvenLength(len);
+        int check = 0;
         for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hexString.charAt(i), 16) << 4)
-                    + Character.digit(hexString.charAt(i+1), 16));
+            int c1 = src.charAt(off + i);
+            int c2 = src.charAt(off + i + 1);
+            int value = (HEX_VALUES[c1 & 0x7F] << 4) | HEX_VALUES[c2 & 0x7F];
+            check |= value | -((c1 | c2) >>> 7);
+            dst[dstOff++] = (byte) value;
         }
-        return data;
+        if (check < 0) throw invalidDigit(src, off, len);
+        return len / 2;
+    }
+
+    public static int decode(char[] src, int off, int len, byte[] dst, int dstOff) {
+        checkEvenLength(len);
+        int check = 0;
+        for (int i = 0; i < len; i += 2) {
+            int c1 = src[off + i];
+            int c2 = src[off + i + 1];
+            int value = (HEX_VALUES[c1 & 0x7F] << 4) | HEX_VALUES[c2 & 0x7F];
+            check |= value | -((c1 | c2) >>> 7);
+            dst[dstOff++] = (byte) value;
+        }
+        if (check < 0) throw invalidDigit(CharBuffer.wrap(src), off, len);
+        return len / 2;
+    }
+
+    // decodifica dígitos ASCII
+    public static int decode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        checkEvenLength(len);
+        int check = 0;
+        for (int i = 0; i < len; i += 2) {
+            int c1 = src[off + i];
+            int c2 = src[off + i + 1];
+            int value = (HEX_VALUES[c1 & 0x7F] << 4) | HEX_VALUES[c2 & 0x7F];
+            check |= value | -((c1 | c2) >>> 7);
+            dst[dstOff++] = (byte) value;
+        }
+        if (check < 0) throw invalidDigit(asciiChars(src, off, len), 0, len);
+        return len / 2;
+    }
+
+    // consome src.remaining() dígitos ASCII e escreve os bytes em dst
+    public static int decode(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        checkEvenLength(len);
+        if (dst.remaining() < len / 2) throw new IllegalArgumentException("Buffer de destino insuficiente.");
+        while (src.hasRemaining()) {
+            int c1 = src.get();
+            int c2 = src.get();
+            int value = (HEX_VALUES[c1 & 0x7F] << 4) | HEX_VALUES[c2 & 0x7F];
+            if ((value | -((c1 | c2) >>> 7)) < 0) {
+                throw new IllegalArgumentException("Caractere hexadecimal inválido na posição " + (src.position() - 2));
+            }
+            dst.put((byte) value);
+        }
+        return len / 2;
+    }
+
+    private static IllegalArgumentException invalidDigit(CharSequence src, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            char c = src.charAt(off + i);
+            if (c >= 128 || HEX_VALUES[c] < 0) {
+                return new IllegalArgumentException("Caractere hexadecimal inválido na posição " + i + ": " + c);
+            }
+        }
+        return new IllegalArgumentException("Entrada hexadecimal inválida.");
+    }
+
+    private static CharSequence asciiChars(byte[] src, int off, int len) {
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) chars[i] = (char) (src[off + i] & 0xFF);
+        return CharBuffer.wrap(chars);
+    }
+
+    private static void checkEvenLength(int len) {
+        if ((len & 1) != 0) throw new IllegalArgumentException("Tamanho hexadecimal ímpar: " + len);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codec de enquadramento das mensagens seladas.
+ *
+ * Quadro binário: tipo (1 byte, ver ProtectionMode) | tamanho (int, big-endian) | mensagem selada.
+ * Linha de texto (legado, apenas AES_HMAC): hex(hmac) + "::" + hex(cifra) + "\n".
+ *
+ * O tipo nunca é um caractere hexadecimal, então o primeiro byte recebido
+ * basta para distinguir um cliente binário de um cliente legado.
+ */
+public class FrameCodec {
+
+    // limite da mensagem selada, verificado antes de qualquer alocação ou decodificação
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger("seguranca.max.frame", 64 * 1024);
+    public static final int MAX_LINE_LENGTH = MAX_FRAME_LENGTH * 2 + 2;
+    public static final int FRAME_HEADER_LENGTH = 5;
+
+    private static final byte[] SEPARATOR = {':', ':'};
+
+    public static boolean isBinaryFrameStart(int firstByte) {
+        return ProtectionMode.fromFrameType(firstByte) != null;
+    }
+
+    public static void writeFrame(DataOutputStream out, ProtectionMode mode, byte[] sealed, int off, int len) throws IOException {
+        out.writeByte(mode.getFrameType());
+        out.writeInt(len);
+        out.write(sealed, off, len);
+    }
+
+    // quadro binário completo em um buffer do pool, pronto para escrita (posição 0, limite = tamanho)
+    public static ByteBuffer encodeFrame(ProtectionMode mode, byte[] sealed, int off, int len, BufferPool pool) {
+        ByteBuffer frame = pool.acquire(FRAME_HEADER_LENGTH + len);
+        frame.put(mode.getFrameType()).putInt(len).put(sealed, off, len);
+        return frame.flip();
+    }
+
+    /**
+     * Lê o tipo do próximo quadro binário. Retorna null se o fluxo terminou antes do início do quadro.
+     */
+    public static ProtectionMode readFrameType(DataInputStream in) throws IOException {
+        int frameType = in.read();
+        if (frameType < 0) return null;
+        ProtectionMode mode = ProtectionMode.fromFrameType(frameType);
+        if (mode == null) {
+            throw new IOException("Tipo de quadro desconhecido: " + frameType);
+        }
+        return mode;
+    }
+
+    // lê o restante do quadro cujo tipo acabou de ser lido, em um buffer do pool
+    public static ByteBuffer readFrameBody(DataInputStream in, BufferPool pool) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Tamanho de quadro inválido: " + length);
+        }
+        ByteBuffer sealed = pool.acquire(length);
+        try {
+            in.readFully(sealed.array(), 0, length);
+        } catch (IOException e) {
+            pool.release(sealed);
+            throw e;
+        }
+        sealed.limit(length);
+        return sealed;
+    }
+
+    public static void writeTextLine(DataOutputStream out, byte[] sealed, int off, int len, BufferPool pool) throws IOException {
+        ByteBuffer line = encodeTextLine(sealed, off, len, pool);
+        out.write(line.array(), 0, line.limit());
+        pool.release(line);
+    }
+
+    // linha legada completa (com '\n') em um buffer do pool, pronta para escrita
+    public static ByteBuffer encodeTextLine(byte[] sealed, int off, int len, BufferPool pool) {
+        int hmacLength = SecureChannelContext.HMAC_LENGTH;
+        int lineLength = len * 2 + SEPARATOR.length + 1;
+        ByteBuffer buffer = pool.acquire(lineLength);
+        byte[] line = buffer.array();
+        int pos = ConverterUtils.encode(sealed, off, hmacLength, line, 0);
+        line[pos++] = SEPARATOR[0];
+        line[pos++] = SEPARATOR[1];
+        pos += ConverterUtils.encode(sealed, off + hmacLength, len - hmacLength, line, pos);
+        line[pos] = '\n';
+        buffer.limit(lineLength);
+        return buffer;
+    }
+
+    /**
+     * Lê uma linha legada e a decodifica direto para o formato selado em um buffer do pool,
+     * sem Strings intermediárias. Retorna null no fim do fluxo.
+     * Lança SecurityException se a linha for inválida (a linha é consumida) e IOException se
+     * passar de MAX_LINE_LENGTH, já que não há como ressincronizar sem lê-la inteira.
+     */
+    public static ByteBuffer readTextLine(InputStream in, BufferPool pool) throws IOException {
+        ByteBuffer lineBuffer = pool.acquire(pool.getBufferSize());
+        try {
+            byte[] line = lineBuffer.array();
+            int length = 0;
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (b == '\r') continue;
+                if (length == MAX_LINE_LENGTH) {
+                    throw new IOException("Linha maior que " + MAX_LINE_LENGTH + " caracteres.");
+                }
+                if (length == line.length) {
+                    // linha maior que o buffer do pool: continua em um buffer avulso
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = (byte) b;
+            }
+            if (b == -1 && length == 0) return null;
+            return decodeTextLine(line, 0, length, pool);
+        } finally {
+            pool.release(lineBuffer);
+        }
+    }
+
+    /**
+     * Decodifica line[off..off+length), sem o '\n', para o formato selado em um buffer do pool.
+     * Lança SecurityException se a linha for inválida.
+     */
+    public static ByteBuffer decodeTextLine(byte[] line, int off, int length, BufferPool pool) {
+        int hmacHexLength = SecureChannelContext.HMAC_LENGTH * 2;
+        int cipherOff = off + hmacHexLength + SEPARATOR.length;
+        int cipherHexLength = length - hmacHexLength - SEPARATOR.length;
+        // rejeita pela estrutura antes de decodificar qualquer byte
+        if (cipherHexLength <= 0 || (cipherHexLength & 1) != 0
+                || line[off + hmacHexLength] != SEPARATOR[0] || line[off + hmacHexLength + 1] != SEPARATOR[1]) {
+            throw new SecurityException("Formato inválido.");
+        }
+        int sealedLength = SecureChannelContext.HMAC_LENGTH + cipherHexLength / 2;
+        ByteBuffer sealed = pool.acquire(sealedLength);
+        try {
+            ConverterUtils.decode(line, off, hmacHexLength, sealed.array(), 0);
+            ConverterUtils.decode(line, cipherOff, cipherHexLength, sealed.array(), SecureChannelContext.HMAC_LENGTH);
+        } catch (IllegalArgumentException e) {
+            pool.release(sealed);
+            throw new SecurityException("Formato inválido.");
+        }
+        sealed.limit(sealedLength);
+        return sealed;
+    }
+}
@@ -0,0 +1,134 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências log-linear, no estilo do HdrHistogram: cada potência de 2 é dividida
+ * em 32 sub-faixas, o que dá erro relativo de no máximo ~3%. O registro não aloca nem bloqueia
+ * (um incremento atômico por amostra), então pode ficar ligado em produção.
+ *
+ * Valores em nanossegundos; acima de ~18 minutos são agrupados na última faixa.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private volatile long max;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        total.increment();
+        sum.add(nanos);
+        if (nanos > max) updateMax(nanos);
+    }
+
+    private void record(long nanos, long count) {
+        counts.addAndGet(indexOf(nanos), count);
+        total.add(count);
+        sum.add(nanos * count);
+        if (nanos > max) updateMax(nanos);
+    }
+
+    private synchronized void updateMax(long nanos) {
+        if (nanos > max) max = nanos;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    // maior valor representado pela faixa (estimativa conservadora)
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + (index % SUB_BUCKETS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Valor em nanossegundos abaixo do qual está a fração percentile (0..100) das amostras.
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(highestValueOf(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Cópia com correção de omissão coordenada: para cada amostra maior que o intervalo esperado
+     * entre requisições, acrescenta as amostras que um gerador de carga em malha fechada deixou
+     * de enviar enquanto esperava (valor - intervalo, valor - 2*intervalo, ...).
+     */
+    public LatencyHistogram copyCorrectedForCoordinatedOmission(long expectedIntervalNanos) {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count == 0) continue;
+            long value = Math.min(highestValueOf(i), max);
+            copy.record(value, count);
+            if (expectedIntervalNanos <= 0) continue;
+            for (long missing = value - expectedIntervalNanos; missing >= expectedIntervalNanos; missing -= expectedIntervalNanos) {
+                copy.record(missing, count);
+            }
+        }
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.reset();
+        sum.reset();
+        max = 0;
+    }
+
+    // atributos JMX, em microssegundos
+
+    @Override
+    public double getMeanMicros() {
+        long count = total.sum();
+        return count == 0 ? 0 : sum.sum() / (count * 1000.0);
+    }
+
+    @Override
+    public double getP50Micros() {
+        return valueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return valueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return valueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max / 1000.0;
+    }
+}
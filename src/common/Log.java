@@ -0,0 +1,146 @@
+package common;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log assíncrono dos servidores. A thread que chama apenas verifica o nível e a amostragem
+ * e publica a mensagem numa LogRing; a formatação (inclusive o horário) e a escrita no
+ * console ficam com uma única thread de fundo. Com a fila cheia a mensagem é descartada
+ * e contabilizada, nunca bloqueia quem está atendendo.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.log.level=DEBUG|INFO|WARN|ERROR   nível mínimo (padrão INFO)
+ *   seguranca.log.sample=N                       registra 1 de cada N mensagens DEBUG/INFO (padrão 1)
+ *   seguranca.log.sample.<categoria>=N           o mesmo, só para uma categoria
+ *   seguranca.log.raw=true                       inclui as mensagens seladas em hexadecimal (padrão desligado)
+ *   seguranca.log.buffer=N                       capacidade da fila (padrão 8192)
+ *
+ * WARN e ERROR nunca são amostrados.
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final Level THRESHOLD = Level.valueOf(System.getProperty("seguranca.log.level", "INFO").toUpperCase());
+    private static final boolean RAW = Boolean.getBoolean("seguranca.log.raw");
+    private static final int DEFAULT_SAMPLE = Integer.getInteger("seguranca.log.sample", 1);
+
+    private static final LogRing RING = new LogRing(Integer.getInteger("seguranca.log.buffer", 8192));
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final Map<String, Log> LOGS = new ConcurrentHashMap<>();
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final StringBuilder LINE = new StringBuilder(256); // somente a thread de escrita
+
+    private static volatile Thread writer;
+
+    private final String category;
+    private final int sample;
+
+    private Log(String category) {
+        this.category = category;
+        this.sample = Math.max(1, Integer.getInteger("seguranca.log.sample." + category, DEFAULT_SAMPLE));
+    }
+
+    public static Log get(String category) {
+        return LOGS.computeIfAbsent(category, Log::new);
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    // para não montar a mensagem de debug quando ela seria descartada
+    public boolean isDebugEnabled() {
+        return THRESHOLD == Level.DEBUG;
+    }
+
+    // dumps das mensagens seladas: caros (hex) e sensíveis, por isso desligados por padrão
+    public boolean isRawEnabled() {
+        return RAW;
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public void log(Level level, String message) {
+        if (!isEnabled(level)) return;
+        if (sample > 1 && level.compareTo(Level.WARN) < 0 && ThreadLocalRandom.current().nextInt(sample) != 0) return;
+
+        if (writer == null) startWriter();
+        if (!RING.offer(System.currentTimeMillis(), level, category, message)) {
+            DROPPED.increment();
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) return;
+        Thread thread = new Thread(Log::drainLoop, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-flush"));
+        writer = thread;
+    }
+
+    private static void drainLoop() {
+        while (true) {
+            if (!drain()) LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    // escreve tudo o que estiver na fila; retorna false se não havia nada
+    private static synchronized boolean drain() {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        boolean wrote = false;
+        boolean wroteErr = false;
+        LogRing.Entry entry;
+        while ((entry = RING.peek()) != null) {
+            LINE.setLength(0);
+            LINE.append('[').append(entry.category).append(" | ");
+            TIME.formatTo(Instant.ofEpochMilli(entry.timeMillis), LINE);
+            LINE.append("] ");
+            if (entry.level != Level.INFO) LINE.append(entry.level).append(' ');
+            LINE.append(entry.message);
+
+            if (entry.level.compareTo(Level.WARN) >= 0) {
+                err.println(LINE);
+                wroteErr = true;
+            } else {
+                out.println(LINE);
+                wrote = true;
+            }
+            RING.release(entry);
+        }
+
+        long dropped = DROPPED.sumThenReset();
+        if (dropped > 0) {
+            err.println("[Log] " + dropped + " mensagens descartadas (fila cheia).");
+            wroteErr = true;
+        }
+        if (wrote) out.flush();
+        if (wroteErr) err.flush();
+        return wrote || wroteErr;
+    }
+}
@@ -0,0 +1,75 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fila circular limitada sem travas, com vários produtores e um único consumidor
+ * (algoritmo de Vyukov): cada posição carrega um número de sequência que diz se está
+ * livre para o produtor da volta atual ou pronta para o consumidor.
+ *
+ * Os produtores disputam apenas um compareAndSet na cauda; com a fila cheia o registro
+ * é recusado em vez de bloquear a thread que está atendendo mensagens.
+ */
+final class LogRing {
+
+    static final class Entry {
+        volatile long sequence;
+        long timeMillis;
+        Log.Level level;
+        String category;
+        String message;
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // somente o consumidor
+
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            entries[i].sequence = i;
+        }
+    }
+
+    boolean offer(long timeMillis, Log.Level level, String category, String message) {
+        Entry entry;
+        long position;
+        while (true) {
+            position = tail.get();
+            entry = entries[(int) (position & mask)];
+            long diff = entry.sequence - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (diff < 0) {
+                return false; // cheia
+            }
+            // outro produtor ocupou a posição; tenta a seguinte
+        }
+        entry.timeMillis = timeMillis;
+        entry.level = level;
+        entry.category = category;
+        entry.message = message;
+        entry.sequence = position + 1; // publica para o consumidor
+        return true;
+    }
+
+    /**
+     * Próximo registro publicado ou null se a fila estiver vazia. O registro deve ser
+     * devolvido com release() antes da próxima chamada.
+     */
+    Entry peek() {
+        Entry entry = entries[(int) (head & mask)];
+        return (entry.sequence == head + 1) ? entry : null;
+    }
+
+    void release(Entry entry) {
+        entry.message = null;
+        entry.category = null;
+        entry.sequence = head + entries.length; // livre para a próxima volta
+        head++;
+    }
+}
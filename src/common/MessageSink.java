@@ -0,0 +1,17 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Destino de mensagens seguras de uma conexão, independente de como ela é atendida
+ * (SecureMessagePipeline bloqueante ou conexão do NioServer).
+ */
+public interface MessageSink extends Closeable {
+
+    void send(String message) throws IOException, GeneralSecurityException;
+
+    // mesma mensagem para muitas conexões: escreve o quadro já selado e compartilhado
+    void send(BroadcastMessage message) throws IOException, GeneralSecurityException;
+}
@@ -0,0 +1,628 @@
+package common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor de mensagens seguras não bloqueante, alternativa a uma thread por conexão.
+ *
+ * Poucas threads de I/O, cada uma com seu Selector, apenas leem e desenquadram (quadros binários
+ * ou linhas legadas, com a mesma detecção de formato do WireChannel). Decodificação hex, abertura,
+ * processamento e selagem rodam num pool limitado de workers, com as mensagens de uma mesma
+ * conexão processadas em ordem, uma de cada vez. Conexões ociosas não retêm buffers: o buffer de
+ * leitura só existe enquanto há um quadro parcial, e o de escrita só enquanto o socket não aceita tudo.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.nio.ioThreads=N  threads de I/O (padrão: metade dos processadores, no mínimo 1)
+ *   seguranca.nio.workers=N    threads do pool de processamento (padrão: número de processadores)
+ *   seguranca.nio.queue=N      conexões aguardando worker (padrão 10000); acima disso o cliente
+ *                              recebe "ERROR;Servidor sobrecarregado."
+ *   seguranca.nio.maxPending=N mensagens de uma conexão aguardando processamento (padrão 64);
+ *                              com a fila cheia a conexão deixa de ser lida até ela esvaziar
+ *   seguranca.nio.maxOutboundBytes=N  bytes aguardando escrita por conexão antes de encerrá-la
+ *                              (padrão 1 MB)
+ *
+ * Com o RateLimiter ativo, cada quadro é admitido na thread de I/O, antes de ser copiado: o recusado
+ * vira só uma resposta ERROR;THROTTLED, enfileirada em ordem com as demais; no modo pause a conexão
+ * deixa de ser lida até haver ficha.
+ */
+public class NioServer {
+
+    /**
+     * Lógica do servidor, chamada nas threads do pool.
+     */
+    public interface MessageHandler {
+        // resposta para a própria conexão, ou null para não responder
+        String handle(String message, MessageSink origin) throws Exception;
+
+        default void disconnected(MessageSink origin) {
+        }
+    }
+
+    private static final String BUSY_RESPONSE = "ERROR;Servidor sobrecarregado.";
+    private static final int MAX_PENDING_PER_CONNECTION = Math.max(1, Integer.getInteger("seguranca.nio.maxPending", 64));
+    private static final int MAX_OUTBOUND_BYTES = Integer.getInteger("seguranca.nio.maxOutboundBytes", 1024 * 1024);
+
+    private final int port;
+    private final SecureChannelContext context;
+    private final MessageHandler handler;
+    private final ServerMetrics metrics;
+    private final OffenderTable offenders;
+    private final RateLimiter limiter;
+    private final ScheduledExecutorService resumer; // só no modo pause
+    private final Log log;
+    private final BufferPool pool = BufferPool.SHARED;
+    private final IoLoop[] loops;
+    private final ThreadPoolExecutor workers;
+
+    public NioServer(int port, SecureChannelContext context, MessageHandler handler,
+                     ServerMetrics metrics, OffenderTable offenders, RateLimiter limiter, Log log) throws IOException {
+        this.port = port;
+        this.context = context;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.offenders = offenders;
+        this.limiter = limiter;
+        this.log = log;
+        this.resumer = (limiter.isEnabled() && limiter.isPausing()) ? Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "nio-throttle");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.loops = new IoLoop[Integer.getInteger("seguranca.nio.ioThreads", Math.max(1, processors / 2))];
+        for (int i = 0; i < loops.length; i++) loops[i] = new IoLoop(i);
+
+        int workerThreads = Integer.getInteger("seguranca.nio.workers", processors);
+        AtomicInteger workerIndex = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Integer.getInteger("seguranca.nio.queue", 10_000)),
+                task -> {
+                    Thread thread = new Thread(task, "nio-worker-" + workerIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Aceita conexões na thread chamadora e as distribui entre as threads de I/O. Não retorna.
+     */
+    public void start() throws IOException {
+        for (IoLoop loop : loops) loop.start();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            int next = 0;
+            while (true) {
+                SocketChannel channel = server.accept();
+                InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+                if (offenders.isBlocked(address)) {
+                    // endereço com falhas de autenticação demais: recusa antes de ler qualquer byte
+                    metrics.connectionRejected();
+                    channel.close();
+                    continue;
+                }
+                if (log.isDebugEnabled()) log.debug("Novo cliente conectado: " + address);
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(new Connection(channel, address, loops[next]));
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    private final class IoLoop extends Thread {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        IoLoop(int index) throws IOException {
+            super("nio-io-" + index);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        // executa a tarefa na thread de I/O
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(Connection connection) {
+            execute(() -> {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    metrics.connectionOpened();
+                } catch (IOException e) {
+                    connection.closeNow();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(this::onSelected);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                } catch (Exception e) {
+                    log.error("Erro no laço de I/O: " + e.getMessage());
+                }
+            }
+        }
+
+        private void onSelected(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            if (key.isValid() && key.isReadable()) connection.onReadable();
+            if (key.isValid() && key.isWritable()) connection.onWritable();
+        }
+    }
+
+    // mensagem desenquadrada aguardando worker; mode null indica linha legada ainda em hex,
+    // data null uma mensagem recusada pelo RateLimiter, que só recebe ERROR;THROTTLED
+    private static final class Inbound {
+        final ProtectionMode mode;
+        final ByteBuffer data;
+
+        Inbound(ProtectionMode mode, ByteBuffer data) {
+            this.mode = mode;
+            this.data = data;
+        }
+    }
+
+    private final class Connection implements MessageSink {
+
+        final SocketChannel channel;
+        final InetAddress address;
+        final IoLoop loop;
+        SelectionKey key;
+
+        private volatile WireFormat format;
+        private volatile ProtectionMode mode = ProtectionMode.AES_HMAC;
+        private volatile boolean closed;
+        private ByteBuffer readBuffer;                                 // thread de I/O
+        private final ArrayDeque<Inbound> inbox = new ArrayDeque<>();  // guardado por this
+        private boolean scheduled;                                     // guardado por this
+        private final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();  // guardado por outbox
+        private int outboxBytes;                                           // guardado por outbox
+        private int rejected;                                          // workers, em série
+        private final AtomicLong bucket = limiter.newConnectionBucket();
+        private boolean paused;                                        // thread de I/O
+        private boolean reserved;  // thread de I/O: ficha do próximo quadro já tomada antes da pausa
+        private boolean backpressured;                                 // guardado por this: leitura parada pela fila
+
+        Connection(SocketChannel channel, InetAddress address, IoLoop loop) {
+            this.channel = channel;
+            this.address = address;
+            this.loop = loop;
+        }
+
+        // thread de I/O
+        void onReadable() {
+            if (readBuffer == null) readBuffer = pool.acquire(pool.getBufferSize());
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    closeNow();
+                    return;
+                }
+                decodeBuffered();
+            } catch (IOException e) {
+                log.warn("Conexão com " + address + " encerrada: " + e.getMessage());
+                closeNow();
+            }
+        }
+
+        // thread de I/O: desenquadra o que está no buffer de leitura e guarda o restante
+        private void decodeBuffered() throws IOException {
+            readBuffer.flip();
+            int needed = decodeFrames(readBuffer);
+            if (!readBuffer.hasRemaining()) {
+                pool.release(readBuffer);
+                readBuffer = null;
+            } else if (needed > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, readBuffer.capacity() * 2));
+                larger.put(readBuffer);
+                pool.release(readBuffer);
+                readBuffer = larger;
+            } else {
+                readBuffer.compact();
+            }
+        }
+
+        /**
+         * Thread de I/O: admite o próximo quadro. Retorna 0 se ele pode seguir, -1 se foi recusado
+         * (a resposta já está na fila) ou, no modo pause, por quantos nanossegundos esperar antes dele.
+         */
+        private long admit(ProtectionMode frameMode) {
+            if (!limiter.isEnabled()) return 0;
+            if (reserved) {
+                reserved = false;
+                return 0;
+            }
+            long wait = limiter.acquire(bucket, address);
+            if (wait == 0 || limiter.isPausing()) return wait;
+            metrics.messageThrottled();
+            dispatch(frameMode, null);
+            return -1;
+        }
+
+        // thread de I/O: para de ler a conexão; o quadro atual e os seguintes ficam no buffer
+        private void pauseReading(long nanos) {
+            paused = true;
+            reserved = true;
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+            metrics.throttlePaused(nanos);
+            resumer.schedule(() -> loop.execute(this::resumeReading), nanos, TimeUnit.NANOSECONDS);
+        }
+
+        // thread de I/O: com a fila da conexão cheia, para de ler até um worker esvaziá-la pela metade
+        private boolean holdForInbox() {
+            synchronized (this) {
+                if (inbox.size() < MAX_PENDING_PER_CONNECTION) return false;
+                backpressured = true;
+            }
+            paused = true;
+            key.interestOpsAnd(~SelectionKey.OP_READ);
+            return true;
+        }
+
+        // thread de I/O
+        private void resumeReading() {
+            if (closed) return;
+            paused = false;
+            try {
+                if (readBuffer != null && readBuffer.position() > 0) decodeBuffered();
+            } catch (IOException e) {
+                log.warn("Conexão com " + address + " encerrada: " + e.getMessage());
+                closeNow();
+                return;
+            }
+            if (!paused && key.isValid()) key.interestOpsOr(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Entrega aos workers os quadros completos do buffer (em modo de leitura) e retorna
+         * quantos bytes o próximo quadro precisa, para que o buffer cresça se for preciso.
+         */
+        private int decodeFrames(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                if (format == null) {
+                    format = FrameCodec.isBinaryFrameStart(buffer.get(start) & 0xFF) ? WireFormat.BINARY : WireFormat.TEXT;
+                }
+
+                if (format == WireFormat.BINARY) {
+                    if (buffer.remaining() < FrameCodec.FRAME_HEADER_LENGTH) return FrameCodec.FRAME_HEADER_LENGTH;
+                    int frameType = buffer.get(start) & 0xFF;
+                    ProtectionMode frameMode = ProtectionMode.fromFrameType(frameType);
+                    if (frameMode == null) throw new IOException("Tipo de quadro desconhecido: " + frameType);
+                    int length = buffer.getInt(start + 1);
+                    if (length <= 0 || length > FrameCodec.MAX_FRAME_LENGTH) {
+                        throw new IOException("Tamanho de quadro inválido: " + length);
+                    }
+                    if (buffer.remaining() < FrameCodec.FRAME_HEADER_LENGTH + length) {
+                        return FrameCodec.FRAME_HEADER_LENGTH + length;
+                    }
+                    if (holdForInbox()) return 0;
+                    long admission = admit(frameMode);
+                    if (admission > 0) {
+                        pauseReading(admission);
+                        return 0;
+                    }
+                    if (admission < 0) {
+                        buffer.position(start + FrameCodec.FRAME_HEADER_LENGTH + length);
+                        continue;
+                    }
+                    ByteBuffer sealed = pool.acquire(length);
+                    buffer.position(start + FrameCodec.FRAME_HEADER_LENGTH);
+                    buffer.get(sealed.array(), 0, length);
+                    sealed.limit(length);
+                    dispatch(frameMode, sealed);
+                } else {
+                    int newline = -1;
+                    for (int i = start; i < buffer.limit(); i++) {
+                        if (buffer.get(i) == '\n') {
+                            newline = i;
+                            break;
+                        }
+                    }
+                    if (newline < 0) {
+                        if (buffer.remaining() > FrameCodec.MAX_LINE_LENGTH) {
+                            throw new IOException("Linha maior que " + FrameCodec.MAX_LINE_LENGTH + " caracteres.");
+                        }
+                        return buffer.remaining() + 1;
+                    }
+                    int end = (newline > start && buffer.get(newline - 1) == '\r') ? newline - 1 : newline;
+                    if (holdForInbox()) return 0;
+                    long admission = admit(null);
+                    if (admission > 0) {
+                        pauseReading(admission);
+                        return 0;
+                    }
+                    if (admission < 0) {
+                        buffer.position(newline + 1);
+                        continue;
+                    }
+                    ByteBuffer line = pool.acquire(end - start);
+                    buffer.get(line.array(), 0, end - start);
+                    line.limit(end - start);
+                    buffer.position(newline + 1);
+                    dispatch(null, line);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Thread de I/O: enfileira a mensagem e agenda a conexão no pool se ela ainda não estiver lá.
+         * holdForInbox já garantiu vaga na fila da conexão.
+         */
+        private void dispatch(ProtectionMode frameMode, ByteBuffer data) {
+            boolean submit;
+            synchronized (this) {
+                inbox.add(new Inbound(frameMode, data));
+                submit = !scheduled;
+                if (submit) scheduled = true;
+            }
+            if (!submit) return;
+            try {
+                workers.execute(this::drainInbox);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    for (Inbound pending : inbox) pool.release(pending.data);
+                    inbox.clear();
+                    scheduled = false;
+                }
+                replyBusy(frameMode);
+            }
+        }
+
+        // pool inteiro saturado: a conexão não tinha nada na fila nem em processamento, então a
+        // resposta sai na ordem certa; o modo vai só nesta resposta, sem mudar o da conexão
+        private void replyBusy(ProtectionMode frameMode) {
+            try {
+                send(BUSY_RESPONSE, (frameMode != null) ? frameMode : mode);
+            } catch (Exception e) {
+                closeNow();
+            }
+        }
+
+        // worker
+        private void drainInbox() {
+            while (true) {
+                Inbound item;
+                boolean resume;
+                synchronized (this) {
+                    item = inbox.poll();
+                    resume = backpressured && inbox.size() <= MAX_PENDING_PER_CONNECTION / 2;
+                    if (resume) backpressured = false;
+                    if (item == null) scheduled = false;
+                }
+                if (resume) loop.execute(this::resumeReading);
+                if (item == null) return;
+                if (closed) {
+                    pool.release(item.data);
+                } else {
+                    process(item);
+                }
+            }
+        }
+
+        private void process(Inbound item) {
+            if (item.data == null) {
+                if (item.mode != null) mode = item.mode;
+                try {
+                    send(limiter.getThrottledResponse());
+                } catch (Exception e) {
+                    close();
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            ByteBuffer sealed = item.data;
+            ProtectionMode itemMode = item.mode;
+            if (itemMode == null) {
+                // linha legada: o hex é decodificado aqui, fora da thread de I/O
+                try {
+                    sealed = FrameCodec.decodeTextLine(item.data.array(), 0, item.data.limit(), pool);
+                } catch (SecurityException e) {
+                    metrics.malformedMessage();
+                    reject(e);
+                    return;
+                } finally {
+                    pool.release(item.data);
+                }
+                itemMode = ProtectionMode.AES_HMAC;
+                long decoded = System.nanoTime();
+                metrics.record(ServerMetrics.Stage.DECODE, decoded - start);
+                start = decoded;
+            }
+
+            try {
+                mode = itemMode;
+                String message;
+                try {
+                    message = SecureMessagePipeline.openMessage(context, itemMode, sealed, pool);
+                } catch (SecurityException e) {
+                    metrics.hmacFailure();
+                    reject(e);
+                    return;
+                }
+                long opened = System.nanoTime();
+                metrics.record(ServerMetrics.Stage.OPEN, opened - start);
+                metrics.messageReceived();
+
+                String response = handler.handle(message, this);
+                metrics.record(ServerMetrics.Stage.PROCESS, System.nanoTime() - opened);
+                if (response != null) send(response);
+            } catch (Exception e) {
+                log.error("Erro ao processar mensagem: " + e.getMessage());
+            } finally {
+                pool.release(sealed);
+            }
+        }
+
+        private void reject(SecurityException e) {
+            log.warn("FALHA DE SEGURANÇA: " + e.getMessage() + " Mensagem descartada.");
+            rejected++;
+            boolean blocked = offenders.recordFailure(address);
+            if (blocked || rejected >= offenders.getMaxFailuresPerConnection()) {
+                metrics.connectionRejected();
+                close();
+            }
+        }
+
+        /**
+         * Sela e escreve a mensagem, em qualquer thread. Escreve direto no socket quando não há
+         * nada pendente; o que não couber fica na fila e é escrito pela thread de I/O.
+         */
+        @Override
+        public void send(String message) throws IOException, GeneralSecurityException {
+            send(message, mode);
+        }
+
+        private void send(String message, ProtectionMode sendMode) throws IOException, GeneralSecurityException {
+            if (closed) throw new IOException("Conexão encerrada.");
+            long start = System.nanoTime();
+            ByteBuffer sealed = SecureMessagePipeline.sealMessage(context, sendMode, message, pool);
+            ByteBuffer frame;
+            try {
+                frame = (format == WireFormat.BINARY)
+                        ? FrameCodec.encodeFrame(sendMode, sealed.array(), 0, sealed.limit(), pool)
+                        : FrameCodec.encodeTextLine(sealed.array(), 0, sealed.limit(), pool);
+            } finally {
+                pool.release(sealed);
+            }
+            long sealedAt = System.nanoTime();
+            metrics.record(ServerMetrics.Stage.SEAL, sealedAt - start);
+            write(frame, true, sealedAt);
+        }
+
+        // o quadro compartilhado é escrito sem cópia; só a posição é desta conexão
+        @Override
+        public void send(BroadcastMessage message) throws IOException, GeneralSecurityException {
+            if (closed) throw new IOException("Conexão encerrada.");
+            WireFormat frameFormat = (format == WireFormat.BINARY) ? WireFormat.BINARY : WireFormat.TEXT;
+            write(ByteBuffer.wrap(message.frame(frameFormat, mode)), false, System.nanoTime());
+        }
+
+        // pooled indica um buffer do pool, devolvido aqui; os demais são compartilhados e nunca alterados
+        private void write(ByteBuffer frame, boolean pooled, long start) throws IOException {
+            boolean wantWrite = false;
+            synchronized (outbox) {
+                if (closed) {
+                    if (pooled) pool.release(frame);
+                    throw new IOException("Conexão encerrada.");
+                }
+                if (outbox.isEmpty()) {
+                    try {
+                        channel.write(frame);
+                    } catch (IOException e) {
+                        if (pooled) pool.release(frame);
+                        close();
+                        throw e;
+                    }
+                    if (!frame.hasRemaining()) {
+                        if (pooled) pool.release(frame);
+                        metrics.record(ServerMetrics.Stage.WRITE, System.nanoTime() - start);
+                        return;
+                    }
+                    wantWrite = true;
+                }
+                if (outboxBytes + frame.remaining() > MAX_OUTBOUND_BYTES) {
+                    // cliente que não lê: encerra em vez de acumular memória
+                    if (pooled) pool.release(frame);
+                    close();
+                    throw new IOException("Cliente lento: mais de " + MAX_OUTBOUND_BYTES + " bytes pendentes.");
+                }
+                // só o restante fica retido: copiado num buffer do tamanho exato, ou uma fatia do quadro compartilhado
+                ByteBuffer rest;
+                if (pooled) {
+                    rest = ByteBuffer.allocate(frame.remaining()).put(frame).flip();
+                    pool.release(frame);
+                } else {
+                    rest = frame.slice();
+                }
+                outbox.add(rest);
+                outboxBytes += rest.capacity();
+            }
+            if (wantWrite) {
+                loop.execute(() -> {
+                    if (key != null && key.isValid()) key.interestOpsOr(SelectionKey.OP_WRITE);
+                });
+            }
+            metrics.record(ServerMetrics.Stage.WRITE, System.nanoTime() - start);
+        }
+
+        // thread de I/O
+        void onWritable() {
+            synchronized (outbox) {
+                ByteBuffer head;
+                while ((head = outbox.peek()) != null) {
+                    try {
+                        channel.write(head);
+                    } catch (IOException e) {
+                        closeNow();
+                        return;
+                    }
+                    if (head.hasRemaining()) return;
+                    outboxBytes -= outbox.poll().capacity();
+                }
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            }
+        }
+
+        // encerra a conexão a partir de qualquer thread
+        @Override
+        public void close() {
+            loop.execute(this::closeNow);
+        }
+
+        // thread de I/O
+        private void closeNow() {
+            if (closed) return;
+            closed = true;
+            if (key != null) {
+                key.cancel();
+                metrics.connectionClosed();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // já encerrada
+            }
+            pool.release(readBuffer);
+            readBuffer = null;
+            synchronized (outbox) {
+                outbox.clear();
+                outboxBytes = 0;
+            }
+            synchronized (this) {
+                for (Inbound pending : inbox) pool.release(pending.data);
+                inbox.clear();
+            }
+            handler.disconnected(this);
+            if (log.isDebugEnabled()) log.debug("Cliente desconectado: " + address);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package common;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tabela de penalidades por endereço de origem para falhas de autenticação.
+ *
+ * Cada endereço ocupa uma posição de um vetor de tamanho fixo (AddressSlots); a posição guarda o
+ * início da janela e o número de falhas num único long, atualizado por compareAndSet, então
+ * threads diferentes só disputam quando caem na mesma posição. Um endereço com falhas demais
+ * dentro da janela fica bloqueado até a janela expirar.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.reject.perConnection=N  falhas antes de encerrar a conexão (padrão 3)
+ *   seguranca.reject.perAddress=N     falhas do mesmo endereço que o bloqueiam (padrão 20)
+ *   seguranca.reject.windowMs=N       janela de contagem e duração do bloqueio (padrão 10000)
+ */
+public class OffenderTable {
+
+    private static final int FAILURE_BITS = 20;
+    private static final long FAILURE_MASK = (1L << FAILURE_BITS) - 1;
+
+    private final int maxFailuresPerConnection = Integer.getInteger("seguranca.reject.perConnection", 3);
+    private final int maxFailuresPerAddress = Integer.getInteger("seguranca.reject.perAddress", 20);
+    private final long windowMillis = Long.getLong("seguranca.reject.windowMs", 10_000L);
+
+    private final AddressSlots slots = new AddressSlots();
+    // (milissegundos desde a criação da tabela no início da janela << FAILURE_BITS) | falhas
+    private final AtomicLongArray states = new AtomicLongArray(AddressSlots.SLOTS);
+    private final long baseNanos = System.nanoTime();
+
+    public int getMaxFailuresPerConnection() {
+        return maxFailuresPerConnection;
+    }
+
+    /**
+     * Registra uma falha de autenticação vinda do endereço. Retorna true se o endereço
+     * passou a estar (ou já estava) bloqueado.
+     */
+    public boolean recordFailure(InetAddress address) {
+        int slot = slots.claim(AddressSlots.keyOf(address), this::isExpired, expired -> states.set(expired, 0));
+        long now = nowMillis();
+        while (true) {
+            long state = states.get(slot);
+            long start = state >>> FAILURE_BITS;
+            long failures = state & FAILURE_MASK;
+            long next = (failures == 0 || now - start >= windowMillis)
+                    ? (now << FAILURE_BITS) | 1
+                    : (start << FAILURE_BITS) | Math.min(failures + 1, FAILURE_MASK);
+            if (states.compareAndSet(slot, state, next)) {
+                return (next & FAILURE_MASK) >= maxFailuresPerAddress;
+            }
+        }
+    }
+
+    // consulta barata feita a cada conexão aceita
+    public boolean isBlocked(InetAddress address) {
+        int slot = slots.find(AddressSlots.keyOf(address));
+        if (slot < 0) return false;
+        long state = states.get(slot);
+        return (state & FAILURE_MASK) >= maxFailuresPerAddress
+                && nowMillis() - (state >>> FAILURE_BITS) < windowMillis;
+    }
+
+    // posição cuja janela já passou: pode ser tomada por outro endereço
+    private boolean isExpired(int slot) {
+        return nowMillis() - (states.get(slot) >>> FAILURE_BITS) >= windowMillis;
+    }
+
+    private long nowMillis() {
+        return (System.nanoTime() - baseNanos) / 1_000_000L;
+    }
+}
@@ -0,0 +1,39 @@
+package common;
+
+/**
+ * Esquemas de proteção das mensagens.
+ * AES_HMAC é o esquema legado (AES + HMAC-SHA256 sobre a cifra, encrypt-then-MAC);
+ * AES_GCM cifra e autentica em uma única passada, com nonce por mensagem.
+ *
+ * O código de cada modo é o primeiro byte do quadro binário que o transporta.
+ */
+public enum ProtectionMode {
+    AES_HMAC((byte) 0x01),
+    AES_GCM((byte) 0x02);
+
+    public static final String PROPERTY = "seguranca.mode";
+
+    private final byte frameType;
+
+    ProtectionMode(byte frameType) {
+        this.frameType = frameType;
+    }
+
+    public byte getFrameType() {
+        return frameType;
+    }
+
+    public static ProtectionMode fromFrameType(int frameType) {
+        for (ProtectionMode mode : values()) {
+            if (mode.frameType == frameType) return mode;
+        }
+        return null;
+    }
+
+    // modo usado pelos clientes; a linha de texto legada só transporta AES_HMAC
+    public static ProtectionMode clientDefault(WireFormat format) {
+        if (format == WireFormat.TEXT) return AES_HMAC;
+        String configured = System.getProperty(PROPERTY, "gcm");
+        return "hmac".equalsIgnoreCase(configured) ? AES_HMAC : AES_GCM;
+    }
+}
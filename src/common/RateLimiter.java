@@ -0,0 +1,126 @@
+package common;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Controle de admissão de mensagens por conexão e por endereço de origem, com baldes de fichas.
+ *
+ * Cada balde é um único long com o instante teórico da próxima ficha (GCRA): admitir é avançá-lo
+ * em um intervalo por compareAndSet, sem lock. Um balde aceita até burst mensagens de uma vez e
+ * depois uma a cada 1/taxa segundos. Os baldes por endereço ficam num vetor de tamanho fixo, com o
+ * mesmo endereçamento da OffenderTable (AddressSlots); a verificação acontece antes de abrir a
+ * mensagem, então uma mensagem recusada não custa verificação nem decifragem.
+ *
+ * Acima do limite a mensagem é descartada e o cliente recebe "ERROR;THROTTLED" (selada uma única
+ * vez por modo) ou, no modo pause, a conexão para de ser lida até haver ficha e a mensagem segue.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.limit.perConnection=N  mensagens por segundo de cada conexão (padrão 0, sem limite)
+ *   seguranca.limit.perAddress=N     mensagens por segundo somando as conexões do endereço (padrão 0)
+ *   seguranca.limit.burst=N          mensagens aceitas de uma vez acima da taxa (padrão: a taxa)
+ *   seguranca.limit.mode=reject|pause  resposta ao excesso (padrão reject)
+ */
+public class RateLimiter {
+
+    public static final String THROTTLED_RESPONSE = "ERROR;THROTTLED";
+
+    private final long connectionInterval; // nanossegundos por ficha; 0 = sem limite
+    private final long addressInterval;
+    private final long connectionBurst;    // em nanossegundos: burst * intervalo
+    private final long addressBurst;
+    private final boolean pausing;
+    private final BroadcastMessage throttled;
+
+    private final AddressSlots slots = new AddressSlots();
+    // instante teórico da próxima ficha, em nanossegundos desde a criação da tabela
+    private final AtomicLongArray addressTimes = new AtomicLongArray(AddressSlots.SLOTS);
+    private final long baseNanos = System.nanoTime();
+
+    public RateLimiter(SecureChannelContext context) {
+        int perConnection = Integer.getInteger("seguranca.limit.perConnection", 0);
+        int perAddress = Integer.getInteger("seguranca.limit.perAddress", 0);
+        this.connectionInterval = (perConnection > 0) ? 1_000_000_000L / perConnection : 0;
+        this.addressInterval = (perAddress > 0) ? 1_000_000_000L / perAddress : 0;
+        this.connectionBurst = connectionInterval * Integer.getInteger("seguranca.limit.burst", Math.max(1, perConnection));
+        this.addressBurst = addressInterval * Integer.getInteger("seguranca.limit.burst", Math.max(1, perAddress));
+        this.pausing = "pause".equalsIgnoreCase(System.getProperty("seguranca.limit.mode"));
+        this.throttled = new BroadcastMessage(THROTTLED_RESPONSE, context);
+    }
+
+    public boolean isEnabled() {
+        return connectionInterval > 0 || addressInterval > 0;
+    }
+
+    // pausar a leitura em vez de responder ERROR;THROTTLED
+    public boolean isPausing() {
+        return pausing;
+    }
+
+    public BroadcastMessage getThrottledResponse() {
+        return throttled;
+    }
+
+    // balde de uma conexão, criado junto com ela
+    public AtomicLong newConnectionBucket() {
+        return new AtomicLong();
+    }
+
+    /**
+     * Tenta admitir uma mensagem da conexão. Retorna 0 se admitida; senão, os nanossegundos até
+     * haver ficha. No modo reject uma mensagem recusada não consome ficha de nenhum dos baldes; no
+     * modo pause as fichas ficam reservadas mesmo assim: basta esperar o tempo retornado.
+     */
+    public long acquire(AtomicLong connection, InetAddress address) {
+        long now = System.nanoTime() - baseNanos;
+        long wait = 0;
+        if (connectionInterval > 0) {
+            wait = take(connection, now, connectionInterval, connectionBurst);
+            if (wait > 0 && !pausing) return wait;
+        }
+        if (addressInterval > 0) {
+            int slot = slots.claim(AddressSlots.keyOf(address), this::isIdle, idle -> addressTimes.set(idle, 0));
+            while (true) {
+                long current = addressTimes.get(slot);
+                long next = Math.max(current, now) + addressInterval;
+                long slotWait = next - now - addressBurst;
+                if (slotWait > 0 && !pausing) {
+                    if (connectionInterval > 0) connection.addAndGet(-connectionInterval); // devolve a ficha da conexão
+                    return slotWait;
+                }
+                if (addressTimes.compareAndSet(slot, current, next)) {
+                    wait = Math.max(wait, slotWait);
+                    break;
+                }
+            }
+        }
+        return Math.max(0, wait);
+    }
+
+    private long take(AtomicLong bucket, long now, long interval, long burst) {
+        while (true) {
+            long current = bucket.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - burst;
+            if (wait > 0 && !pausing) return wait;
+            if (bucket.compareAndSet(current, next)) return Math.max(0, wait);
+        }
+    }
+
+    // endereços sem ficha disponível agora, para as métricas
+    public int getLimitedAddressCount() {
+        if (addressInterval == 0) return 0;
+        long now = System.nanoTime() - baseNanos;
+        int limited = 0;
+        for (int slot = 0; slot < AddressSlots.SLOTS; slot++) {
+            if (slots.isOccupied(slot) && addressTimes.get(slot) + addressInterval - now > addressBurst) limited++;
+        }
+        return limited;
+    }
+
+    // balde cheio: a posição pode ser tomada por outro endereço
+    private boolean isIdle(int slot) {
+        return addressTimes.get(slot) <= System.nanoTime() - baseNanos;
+    }
+}
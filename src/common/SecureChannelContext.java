@@ -0,0 +1,309 @@
+package common;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contexto criptográfico construído uma única vez por chave compartilhada.
+ * Mantém instâncias de Mac e Cipher já inicializadas, confinadas por thread,
+ * evitando a busca de provedor e a preparação da chave a cada mensagem.
+ *
+ * Threads do sistema guardam esse estado num ThreadLocal. Threads virtuais (uma por conexão,
+ * notificação ou réplica) vivem pouco: em vez de montar tudo de novo em cada uma, emprestam o
+ * estado de um pool do contexto durante cada operação e o devolvem em seguida. O pool guarda no
+ * máximo 4 estados por processador; o excedente é descartado.
+ *
+ * Formatos selados:
+ *   AES_HMAC: hmac (32 bytes) || cifra, com o HMAC calculado sobre a cifra.
+ *   AES_GCM:  nonce (12 bytes) || cifra || tag (16 bytes).
+ */
+public class SecureChannelContext {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String CIPHER_ALGORITHM = "AES";
+    private static final String GCM_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int AES_KEY_LENGTH = 16;
+    private static final int AES_BLOCK_SIZE = 16;
+    private static final byte[] GCM_KEY_LABEL = "AES-GCM".getBytes(StandardCharsets.US_ASCII);
+
+    public static final int HMAC_LENGTH = 32;
+    public static final int GCM_NONCE_LENGTH = 12;
+    public static final int GCM_TAG_LENGTH = 16;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int MAX_POOLED_STATES = 4 * Runtime.getRuntime().availableProcessors();
+
+    private final SecretKeySpec macKey;
+    private final SecretKeySpec aesKey;
+    private final SecretKeySpec gcmKey;
+    private final ThreadLocal<CryptoState> states = ThreadLocal.withInitial(CryptoState::new);
+    private final ConcurrentLinkedQueue<CryptoState> pooledStates = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    public SecureChannelContext(byte[] key) {
+        byte[] aesKeyBytes = new byte[AES_KEY_LENGTH];
+        System.arraycopy(key, 0, aesKeyBytes, 0, Math.min(key.length, AES_KEY_LENGTH));
+
+        this.macKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+        this.aesKey = new SecretKeySpec(aesKeyBytes, CIPHER_ALGORITHM);
+        this.gcmKey = deriveGcmKey(macKey);
+    }
+
+    // chave própria para o GCM, derivada da chave compartilhada
+    private static SecretKeySpec deriveGcmKey(SecretKeySpec macKey) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(macKey);
+            byte[] gcmKeyBytes = new byte[AES_KEY_LENGTH];
+            System.arraycopy(mac.doFinal(GCM_KEY_LABEL), 0, gcmKeyBytes, 0, AES_KEY_LENGTH);
+            return new SecretKeySpec(gcmKeyBytes, CIPHER_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Falha ao inicializar primitiva criptográfica", e);
+        }
+    }
+
+    public byte[] hmac(byte[] data) {
+        CryptoState state = acquire();
+        try {
+            return state.mac().doFinal(data);
+        } finally {
+            release(state);
+        }
+    }
+
+    public boolean checkHmac(byte[] data, byte[] receivedHmac) {
+        // comparação segura em tempo constante
+        return MessageDigest.isEqual(hmac(data), receivedHmac);
+    }
+
+    public byte[] encrypt(byte[] data) throws GeneralSecurityException {
+        CryptoState state = acquire();
+        try {
+            return state.encryptor().doFinal(data);
+        } finally {
+            release(state);
+        }
+    }
+
+    public byte[] decrypt(byte[] encryptedData) throws GeneralSecurityException {
+        CryptoState state = acquire();
+        try {
+            return state.decryptor().doFinal(encryptedData);
+        } finally {
+            release(state);
+        }
+    }
+
+    // tamanho máximo da mensagem selada para um texto claro de plainLength bytes
+    public int sealedLength(ProtectionMode mode, int plainLength) {
+        if (mode == ProtectionMode.AES_GCM) {
+            return GCM_NONCE_LENGTH + plainLength + GCM_TAG_LENGTH;
+        }
+        return HMAC_LENGTH + (plainLength / AES_BLOCK_SIZE + 1) * AES_BLOCK_SIZE;
+    }
+
+    public int sealedLength(int plainLength) {
+        return sealedLength(ProtectionMode.AES_HMAC, plainLength);
+    }
+
+    public byte[] seal(byte[] plain) throws GeneralSecurityException {
+        return seal(ProtectionMode.AES_HMAC, plain);
+    }
+
+    public byte[] seal(ProtectionMode mode, byte[] plain) throws GeneralSecurityException {
+        byte[] out = new byte[sealedLength(mode, plain.length)];
+        int written = seal(mode, plain, 0, plain.length, out, 0);
+        if (written == out.length) return out;
+        byte[] exact = new byte[written];
+        System.arraycopy(out, 0, exact, 0, written);
+        return exact;
+    }
+
+    public int seal(byte[] plain, int off, int len, byte[] out, int outOff) throws GeneralSecurityException {
+        return seal(ProtectionMode.AES_HMAC, plain, off, len, out, outOff);
+    }
+
+    /**
+     * Cifra e autentica plain[off..off+len) escrevendo a mensagem selada em out a partir de outOff.
+     * Retorna o número de bytes escritos.
+     */
+    public int seal(ProtectionMode mode, byte[] plain, int off, int len, byte[] out, int outOff) throws GeneralSecurityException {
+        CryptoState state = acquire();
+        try {
+            if (mode == ProtectionMode.AES_GCM) {
+                state.nonces.next(out, outOff);
+                Cipher cipher = state.gcmCipher();
+                cipher.init(Cipher.ENCRYPT_MODE, gcmKey, new GCMParameterSpec(GCM_TAG_LENGTH * 8, out, outOff, GCM_NONCE_LENGTH));
+                return GCM_NONCE_LENGTH + cipher.doFinal(plain, off, len, out, outOff + GCM_NONCE_LENGTH);
+            }
+
+            int cipherOff = outOff + HMAC_LENGTH;
+            int cipherLength = state.encryptor().doFinal(plain, off, len, out, cipherOff);
+
+            Mac mac = state.mac();
+            mac.update(out, cipherOff, cipherLength);
+            mac.doFinal(out, outOff);
+            return HMAC_LENGTH + cipherLength;
+        } finally {
+            release(state);
+        }
+    }
+
+    public byte[] open(byte[] sealed) throws GeneralSecurityException {
+        return open(ProtectionMode.AES_HMAC, sealed);
+    }
+
+    public byte[] open(ProtectionMode mode, byte[] sealed) throws GeneralSecurityException {
+        int overhead = (mode == ProtectionMode.AES_GCM) ? GCM_NONCE_LENGTH + GCM_TAG_LENGTH : HMAC_LENGTH;
+        byte[] out = new byte[Math.max(0, sealed.length - overhead)];
+        int written = open(mode, sealed, 0, sealed.length, out, 0);
+        if (written == out.length) return out;
+        byte[] exact = new byte[written];
+        System.arraycopy(out, 0, exact, 0, written);
+        return exact;
+    }
+
+    public int open(byte[] sealed, int off, int len, byte[] out, int outOff) throws GeneralSecurityException {
+        return open(ProtectionMode.AES_HMAC, sealed, off, len, out, outOff);
+    }
+
+    /**
+     * Verifica a autenticidade de sealed[off..off+len) e decifra o conteúdo em out a partir de outOff.
+     * Lança SecurityException se a mensagem não for autêntica. Retorna o número de bytes decifrados.
+     */
+    public int open(ProtectionMode mode, byte[] sealed, int off, int len, byte[] out, int outOff) throws GeneralSecurityException {
+        if (mode == ProtectionMode.AES_GCM) {
+            if (len < GCM_NONCE_LENGTH + GCM_TAG_LENGTH) throw new SecurityException("Mensagem selada muito curta.");
+        } else {
+            if (len <= HMAC_LENGTH) throw new SecurityException("Mensagem selada muito curta.");
+            // cifra que não é múltiplo do bloco não pode ser autêntica: descarta sem calcular o HMAC
+            if ((len - HMAC_LENGTH) % AES_BLOCK_SIZE != 0) throw new SecurityException("Tamanho de cifra inválido.");
+        }
+
+        CryptoState state = acquire();
+        try {
+            if (mode == ProtectionMode.AES_GCM) {
+                Cipher cipher = state.gcmCipher();
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, gcmKey, new GCMParameterSpec(GCM_TAG_LENGTH * 8, sealed, off, GCM_NONCE_LENGTH));
+                    return cipher.doFinal(sealed, off + GCM_NONCE_LENGTH, len - GCM_NONCE_LENGTH, out, outOff);
+                } catch (AEADBadTagException e) {
+                    throw new SecurityException("Tag GCM inválida.");
+                }
+            }
+
+            int cipherOff = off + HMAC_LENGTH;
+            int cipherLength = len - HMAC_LENGTH;
+            if (!verify(state, sealed, cipherOff, cipherLength, sealed, off)) {
+                throw new SecurityException("HMAC inválido.");
+            }
+            return state.decryptor().doFinal(sealed, cipherOff, cipherLength, out, outOff);
+        } finally {
+            release(state);
+        }
+    }
+
+    private static boolean verify(CryptoState state, byte[] data, int off, int len, byte[] receivedHmac, int hmacOff)
+            throws GeneralSecurityException {
+        Mac mac = state.mac();
+        mac.update(data, off, len);
+        byte[] calculated = state.hmacScratch;
+        mac.doFinal(calculated, 0);
+        // comparação em tempo constante sem copiar o hmac recebido
+        int diff = 0;
+        for (int i = 0; i < HMAC_LENGTH; i++) {
+            diff |= calculated[i] ^ receivedHmac[hmacOff + i];
+        }
+        return diff == 0;
+    }
+
+    // estado da thread atual; numa thread virtual, emprestado do pool até release
+    private CryptoState acquire() {
+        if (!Thread.currentThread().isVirtual()) return states.get();
+        CryptoState state = pooledStates.poll();
+        if (state == null) return new CryptoState();
+        pooledCount.decrementAndGet();
+        return state;
+    }
+
+    private void release(CryptoState state) {
+        if (!Thread.currentThread().isVirtual()) return;
+        if (pooledCount.incrementAndGet() > MAX_POOLED_STATES) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+        pooledStates.offer(state);
+    }
+
+    /**
+     * Primitivas inicializadas para a chave, usadas por uma thread de cada vez e criadas na
+     * primeira vez que são pedidas.
+     */
+    private final class CryptoState {
+        final NonceSequence nonces = new NonceSequence();
+        final byte[] hmacScratch = new byte[HMAC_LENGTH];
+        private Mac mac;
+        private Cipher encryptor;
+        private Cipher decryptor;
+        private Cipher gcmCipher;
+
+        Mac mac() {
+            if (mac == null) {
+                try {
+                    mac = Mac.getInstance(HMAC_ALGORITHM);
+                    mac.init(macKey);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("Falha ao inicializar primitiva criptográfica", e);
+                }
+            }
+            return mac;
+        }
+
+        Cipher encryptor() throws GeneralSecurityException {
+            if (encryptor == null) encryptor = newCipher(Cipher.ENCRYPT_MODE);
+            return encryptor;
+        }
+
+        Cipher decryptor() throws GeneralSecurityException {
+            if (decryptor == null) decryptor = newCipher(Cipher.DECRYPT_MODE);
+            return decryptor;
+        }
+
+        Cipher gcmCipher() throws GeneralSecurityException {
+            if (gcmCipher == null) gcmCipher = Cipher.getInstance(GCM_ALGORITHM);
+            return gcmCipher;
+        }
+
+        private Cipher newCipher(int mode) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            cipher.init(mode, aesKey);
+            return cipher;
+        }
+    }
+
+    /**
+     * Nonces GCM por estado (uma thread de cada vez): prefixo aleatório de 8 bytes seguido de um contador de 4 bytes.
+     * O prefixo é sorteado de novo quando o contador dá a volta, então um nonce nunca se repete
+     * para a mesma chave sem depender de coordenação entre threads ou processos.
+     */
+    private static final class NonceSequence {
+        private long prefix = RANDOM.nextLong();
+        private int counter;
+
+        void next(byte[] out, int off) {
+            if (counter == -1) prefix = RANDOM.nextLong();
+            counter++;
+            for (int i = 0; i < 8; i++) out[off + i] = (byte) (prefix >>> (56 - 8 * i));
+            for (int i = 0; i < 4; i++) out[off + 8 + i] = (byte) (counter >>> (24 - 8 * i));
+        }
+    }
+}
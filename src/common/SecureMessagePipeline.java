@@ -0,0 +1,273 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Caminho único de envio e recepção de mensagens seguras, usado por todos os servidores e clientes.
+ *
+ * Envio:    codificar (UTF-8) -> selar (SecureChannelContext) -> enquadrar e escrever (WireChannel).
+ * Recepção: ler e desenquadrar (WireChannel) -> verificar e abrir -> decodificar.
+ *
+ * Os bytes intermediários de cada estágio vivem em buffers do BufferPool, então o tráfego em
+ * regime estável não gera lixo além das Strings de entrada e saída.
+ */
+public class SecureMessagePipeline implements Closeable, MessageSink {
+
+    private final WireChannel channel;
+    private final SecureChannelContext context;
+    private final BufferPool pool;
+    private Consumer<String> rawDump;
+    private ServerMetrics metrics;
+    private OffenderTable offenders;
+    private int rejected;
+    private RateLimiter limiter;
+    private AtomicLong bucket;
+
+    private SecureMessagePipeline(WireChannel channel, SecureChannelContext context, BufferPool pool) {
+        this.channel = channel;
+        this.context = context;
+        this.pool = pool;
+    }
+
+    public static SecureMessagePipeline forServer(Socket socket, SecureChannelContext context) throws IOException {
+        BufferPool pool = BufferPool.SHARED;
+        return new SecureMessagePipeline(new WireChannel(socket, null, ProtectionMode.AES_HMAC, pool), context, pool);
+    }
+
+    public static SecureMessagePipeline forClient(Socket socket, SecureChannelContext context) throws IOException {
+        WireFormat format = WireFormat.clientDefault();
+        return forClient(socket, context, format, ProtectionMode.clientDefault(format));
+    }
+
+    public static SecureMessagePipeline forClient(Socket socket, SecureChannelContext context,
+                                                  WireFormat format, ProtectionMode mode) throws IOException {
+        BufferPool pool = BufferPool.SHARED;
+        return new SecureMessagePipeline(new WireChannel(socket, format, mode, pool), context, pool);
+    }
+
+    // entrega ao destino informado cada mensagem recebida, ainda selada, em hexadecimal
+    public void enableRawDump(Consumer<String> destination) {
+        this.rawDump = destination;
+    }
+
+    // passa a registrar latência por estágio e contadores de mensagens nas métricas do servidor
+    public void attachMetrics(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Passa a contar as mensagens rejeitadas (mal formadas ou não autênticas) desta conexão e do
+     * endereço de origem: ao atingir o limite, receive() lança IOException e a conexão deve ser encerrada.
+     */
+    public void attachOffenderTable(OffenderTable offenders) {
+        this.offenders = offenders;
+    }
+
+    /**
+     * Passa a admitir cada mensagem pelo RateLimiter antes de abri-la. Uma mensagem acima do limite
+     * é descartada e respondida com ERROR;THROTTLED, ou, no modo pause, receive() espera a ficha.
+     */
+    public void attachRateLimiter(RateLimiter limiter) {
+        if (!limiter.isEnabled()) return;
+        this.limiter = limiter;
+        this.bucket = limiter.newConnectionBucket();
+    }
+
+    public WireFormat getFormat() {
+        return channel.getFormat();
+    }
+
+    public ProtectionMode getMode() {
+        return channel.getMode();
+    }
+
+    /**
+     * Recebe, verifica e abre a próxima mensagem. Retorna null no fim do fluxo.
+     * Lança SecurityException se a mensagem for mal formada ou não for autêntica; nesse caso
+     * a mensagem já foi consumida e a próxima pode ser lida normalmente.
+     */
+    public String receive() throws IOException, GeneralSecurityException {
+        while (true) {
+            // com métricas, espera o primeiro byte antes de cronometrar para não medir a ociosidade do cliente
+            if (metrics != null && !channel.awaitMessage()) return null;
+            long start = (metrics != null) ? System.nanoTime() : 0;
+            ByteBuffer sealed;
+            try {
+                sealed = channel.readSealed();
+            } catch (SecurityException e) {
+                if (metrics != null) metrics.malformedMessage();
+                throw reject(e);
+            }
+            if (sealed == null) return null;
+            try {
+                if (limiter != null && !admit()) continue;
+                return openReceived(sealed, start);
+            } finally {
+                pool.release(sealed);
+            }
+        }
+    }
+
+    // false: a mensagem foi recusada sem ser aberta e o cliente já recebeu ERROR;THROTTLED
+    private boolean admit() throws IOException, GeneralSecurityException {
+        long wait = limiter.acquire(bucket, channel.getRemoteAddress());
+        if (wait == 0) return true;
+        if (limiter.isPausing()) {
+            // a ficha já está reservada; enquanto isso a conexão não é lida
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido.", e);
+            }
+            if (metrics != null) metrics.throttlePaused(wait);
+            return true;
+        }
+        if (metrics != null) metrics.messageThrottled();
+        channel.writeBroadcast(limiter.getThrottledResponse());
+        return false;
+    }
+
+    // verifica e abre a mensagem desenquadrada; sealed continua com o chamador
+    private String openReceived(ByteBuffer sealed, long start) throws GeneralSecurityException, IOException {
+        int sealedLength = sealed.limit();
+        if (metrics != null) {
+            long decoded = System.nanoTime();
+            metrics.record(ServerMetrics.Stage.DECODE, decoded - start);
+            start = decoded;
+        }
+        if (rawDump != null) {
+            rawDump.accept("Mensagem recebida (bruta, " + channel.getFormat() + "): " + hex(sealed.array(), sealedLength));
+        }
+        String message;
+        try {
+            message = openMessage(context, channel.getMode(), sealed, pool);
+        } catch (SecurityException e) {
+            if (metrics != null) metrics.hmacFailure();
+            throw reject(e);
+        }
+        if (metrics != null) {
+            metrics.record(ServerMetrics.Stage.OPEN, System.nanoTime() - start);
+            metrics.messageReceived();
+        }
+        return message;
+    }
+
+    @Override
+    public void send(String message) throws IOException, GeneralSecurityException {
+        // o modo é capturado uma vez para que selar e enquadrar concordem mesmo sob escritas concorrentes
+        ProtectionMode mode = channel.getMode();
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        ByteBuffer sealed = sealMessage(context, mode, message, pool);
+        try {
+            if (metrics != null) {
+                long sealedAt = System.nanoTime();
+                metrics.record(ServerMetrics.Stage.SEAL, sealedAt - start);
+                start = sealedAt;
+            }
+            channel.writeSealed(mode, sealed.array(), 0, sealed.limit());
+            if (metrics != null) metrics.record(ServerMetrics.Stage.WRITE, System.nanoTime() - start);
+        } finally {
+            pool.release(sealed);
+        }
+    }
+
+    @Override
+    public void send(BroadcastMessage message) throws IOException, GeneralSecurityException {
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        channel.writeBroadcast(message);
+        if (metrics != null) metrics.record(ServerMetrics.Stage.WRITE, System.nanoTime() - start);
+    }
+
+    /**
+     * Verifica e abre a mensagem selada em sealed[0..limit). O buffer continua com o chamador.
+     * Lança SecurityException se a mensagem não for autêntica.
+     */
+    static String openMessage(SecureChannelContext context, ProtectionMode mode, ByteBuffer sealed,
+                              BufferPool pool) throws GeneralSecurityException {
+        ByteBuffer plain = pool.acquire(sealed.limit());
+        try {
+            int plainLength = context.open(mode, sealed.array(), 0, sealed.limit(), plain.array(), 0);
+            return new String(plain.array(), 0, plainLength, StandardCharsets.UTF_8);
+        } finally {
+            pool.release(plain);
+        }
+    }
+
+    // codifica e sela a mensagem em um buffer do pool (limite = tamanho selado) que o chamador deve devolver
+    static ByteBuffer sealMessage(SecureChannelContext context, ProtectionMode mode, String message,
+                                  BufferPool pool) throws GeneralSecurityException {
+        ByteBuffer plain = pool.acquire(message.length() * 3);
+        ByteBuffer sealed = null;
+        try {
+            int plainLength = encodeUtf8(message, plain.array());
+            sealed = pool.acquire(context.sealedLength(mode, plainLength));
+            sealed.limit(context.seal(mode, plain.array(), 0, plainLength, sealed.array(), 0));
+            return sealed;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            pool.release(sealed);
+            throw e;
+        } finally {
+            pool.release(plain);
+        }
+    }
+
+    // contabiliza a rejeição; lança IOException se a conexão ou o endereço passou do limite
+    private SecurityException reject(SecurityException e) throws IOException {
+        if (offenders == null) return e;
+        rejected++;
+        boolean blocked = offenders.recordFailure(channel.getRemoteAddress());
+        if (blocked || rejected >= offenders.getMaxFailuresPerConnection()) {
+            if (metrics != null) metrics.connectionRejected();
+            throw new IOException("Conexão encerrada após " + rejected + " mensagens rejeitadas"
+                    + (blocked ? " (endereço bloqueado)." : "."), e);
+        }
+        return e;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // UTF-8 direto no buffer do chamador; out deve ter ao menos 3 bytes por char
+    private static int encodeUtf8(String s, byte[] out) {
+        int pos = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?'; // surrogate isolado, como em String.getBytes
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    private static String hex(byte[] data, int length) {
+        char[] chars = new char[length * 2];
+        ConverterUtils.encode(data, 0, length, chars, 0);
+        return new String(chars);
+    }
+}
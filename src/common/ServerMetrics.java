@@ -0,0 +1,261 @@
+package common;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Métricas de um servidor: latência por estágio do processamento de uma mensagem e contadores
+ * de vazão, falhas de HMAC e conexões. Exportadas via JMX (domínio "seguranca") e, se
+ * -Dseguranca.stats.port estiver definido, pelo StatsEndpoint em texto puro.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    public enum Stage {
+        DECODE,   // leitura e desenquadramento (inclui a decodificação hex do formato legado)
+        OPEN,     // verificação de autenticidade e decifragem
+        PROCESS,  // processamento do comando
+        SEAL,     // codificação e selagem da resposta
+        WRITE     // enquadramento e escrita no socket
+    }
+
+    private final String name;
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder hmacFailures = new LongAdder();
+    private final LongAdder malformedMessages = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder evictedSubscribers = new LongAdder();
+    private final LongAdder throttledMessages = new LongAdder();
+    private final LongAdder throttlePausedNanos = new LongAdder();
+    private final LongAdder saturatedConnections = new LongAdder();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile IntSupplier subscriberGauge = () -> 0;
+    private volatile LongSupplier replicationLagGauge = () -> -1;
+    private volatile IntSupplier limitedAddressGauge = () -> 0;
+    private volatile IntSupplier executorRunningGauge = () -> 0;
+    private volatile IntSupplier executorQueuedGauge = () -> 0;
+
+    private long lastRateCount;
+    private long lastRateNanos = System.nanoTime();
+    private double lastRate;
+
+    // métricas avulsas, sem registro no JMX nem no StatsEndpoint (ex.: benchmarks)
+    public ServerMetrics(String name) {
+        this.name = name;
+        for (Stage stage : Stage.values()) stages.put(stage, new LatencyHistogram());
+    }
+
+    /**
+     * Cria as métricas do servidor e as registra no JMX e no StatsEndpoint.
+     */
+    public static ServerMetrics register(String name) {
+        ServerMetrics metrics = new ServerMetrics(name);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(metrics, new ObjectName("seguranca:type=ServerMetrics,server=" + name));
+            for (Map.Entry<Stage, LatencyHistogram> entry : metrics.stages.entrySet()) {
+                server.registerMBean(entry.getValue(),
+                        new ObjectName("seguranca:type=StageLatency,server=" + name + ",stage=" + entry.getKey()));
+            }
+        } catch (JMException e) {
+            System.err.println("[Metrics] Não foi possível registrar as métricas de " + name + " no JMX: " + e.getMessage());
+        }
+        StatsEndpoint.register(metrics);
+        return metrics;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    public LatencyHistogram stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public void messageReceived() {
+        messagesReceived.increment();
+    }
+
+    public void hmacFailure() {
+        hmacFailures.increment();
+    }
+
+    public void malformedMessage() {
+        malformedMessages.increment();
+    }
+
+    // conexão recusada ou encerrada pela OffenderTable
+    public void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    // assinante desconectado por não acompanhar as notificações
+    public void subscriberEvicted() {
+        evictedSubscribers.increment();
+    }
+
+    // mensagem recusada pelo RateLimiter sem ser aberta
+    public void messageThrottled() {
+        throttledMessages.increment();
+    }
+
+    // tempo em que uma conexão ficou sem ser lida pelo RateLimiter (modo pause)
+    public void throttlePaused(long nanos) {
+        throttlePausedNanos.add(nanos);
+    }
+
+    // conexão fechada sem atendimento por falta de vaga no ConnectionExecutor
+    public void connectionSaturated() {
+        saturatedConnections.increment();
+    }
+
+    public void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    public void setSubscriberGauge(IntSupplier gauge) {
+        this.subscriberGauge = gauge;
+    }
+
+    // atraso da réplica em relação ao primário; sem medidor o valor é -1 (não é réplica)
+    public void setReplicationLagGauge(LongSupplier gauge) {
+        this.replicationLagGauge = gauge;
+    }
+
+    // endereços que estão no limite do RateLimiter
+    public void setLimitedAddressGauge(IntSupplier gauge) {
+        this.limitedAddressGauge = gauge;
+    }
+
+    // conexões em atendimento e aguardando thread no ConnectionExecutor
+    public void setExecutorGauges(IntSupplier running, IntSupplier queued) {
+        this.executorRunningGauge = running;
+        this.executorQueuedGauge = queued;
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    // taxa desde a leitura anterior (no mínimo um segundo de janela)
+    @Override
+    public synchronized double getMessagesPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRateNanos;
+        if (elapsed >= 1_000_000_000L) {
+            long count = messagesReceived.sum();
+            lastRate = (count - lastRateCount) * 1e9 / elapsed;
+            lastRateCount = count;
+            lastRateNanos = now;
+        }
+        return lastRate;
+    }
+
+    @Override
+    public long getHmacFailures() {
+        return hmacFailures.sum();
+    }
+
+    @Override
+    public long getMalformedMessages() {
+        return malformedMessages.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getSubscribers() {
+        return subscriberGauge.getAsInt();
+    }
+
+    @Override
+    public long getEvictedSubscribers() {
+        return evictedSubscribers.sum();
+    }
+
+    @Override
+    public long getReplicationLagMillis() {
+        return replicationLagGauge.getAsLong();
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    @Override
+    public long getThrottlePausedMillis() {
+        return throttlePausedNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public int getLimitedAddresses() {
+        return limitedAddressGauge.getAsInt();
+    }
+
+    @Override
+    public int getExecutorRunning() {
+        return executorRunningGauge.getAsInt();
+    }
+
+    @Override
+    public int getExecutorQueued() {
+        return executorQueuedGauge.getAsInt();
+    }
+
+    @Override
+    public long getSaturatedConnections() {
+        return saturatedConnections.sum();
+    }
+
+    // texto usado pelo StatsEndpoint
+    void appendTo(StringBuilder sb) {
+        sb.append("server ").append(name).append('\n');
+        sb.append("  messages_received ").append(getMessagesReceived()).append('\n');
+        sb.append("  messages_per_second ").append(String.format("%.1f", getMessagesPerSecond())).append('\n');
+        sb.append("  hmac_failures ").append(getHmacFailures()).append('\n');
+        sb.append("  malformed_messages ").append(getMalformedMessages()).append('\n');
+        sb.append("  rejected_connections ").append(getRejectedConnections()).append('\n');
+        sb.append("  active_connections ").append(getActiveConnections()).append('\n');
+        sb.append("  subscribers ").append(getSubscribers()).append('\n');
+        sb.append("  evicted_subscribers ").append(getEvictedSubscribers()).append('\n');
+        sb.append("  replication_lag_ms ").append(getReplicationLagMillis()).append('\n');
+        sb.append("  throttled_messages ").append(getThrottledMessages()).append('\n');
+        sb.append("  throttle_paused_ms ").append(getThrottlePausedMillis()).append('\n');
+        sb.append("  limited_addresses ").append(getLimitedAddresses()).append('\n');
+        sb.append("  executor_running ").append(getExecutorRunning()).append('\n');
+        sb.append("  executor_queued ").append(getExecutorQueued()).append('\n');
+        sb.append("  saturated_connections ").append(getSaturatedConnections()).append('\n');
+        for (Map.Entry<Stage, LatencyHistogram> entry : stages.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            sb.append(String.format("  stage %-7s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus%n",
+                    entry.getKey(), histogram.getCount(), histogram.getMeanMicros(), histogram.getP50Micros(),
+                    histogram.getP99Micros(), histogram.getP999Micros(), histogram.getMaxMicros()));
+        }
+    }
+}
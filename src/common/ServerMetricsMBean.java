@@ -0,0 +1,34 @@
+package common;
+
+public interface ServerMetricsMBean {
+
+    long getMessagesReceived();
+
+    double getMessagesPerSecond();
+
+    long getHmacFailures();
+
+    long getMalformedMessages();
+
+    long getRejectedConnections();
+
+    int getActiveConnections();
+
+    int getSubscribers();
+
+    long getEvictedSubscribers();
+
+    long getReplicationLagMillis();
+
+    long getThrottledMessages();
+
+    long getThrottlePausedMillis();
+
+    int getLimitedAddresses();
+
+    int getExecutorRunning();
+
+    int getExecutorQueued();
+
+    long getSaturatedConnections();
+}
@@ -0,0 +1,59 @@
+package common;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Endpoint local opcional com as métricas de todos os servidores do processo em texto puro.
+ * Ativado com -Dseguranca.stats.port=<porta>; escuta apenas em loopback e responde a cada
+ * conexão com um retrato das métricas, fechando em seguida (ex.: nc 127.0.0.1 <porta>).
+ */
+public class StatsEndpoint {
+
+    public static final String PROPERTY = "seguranca.stats.port";
+
+    private static final List<ServerMetrics> REGISTERED = new CopyOnWriteArrayList<>();
+    private static boolean started;
+
+    static void register(ServerMetrics metrics) {
+        REGISTERED.add(metrics);
+        startIfConfigured();
+    }
+
+    private static synchronized void startIfConfigured() {
+        String configured = System.getProperty(PROPERTY);
+        if (started || configured == null) return;
+        started = true;
+
+        int port = Integer.parseInt(configured);
+        Thread thread = new Thread(() -> serve(port), "stats-endpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void serve(int port) {
+        try (ServerSocket serverSocket = new ServerSocket(port, 8, InetAddress.getLoopbackAddress())) {
+            System.out.println("[Stats] Métricas disponíveis em 127.0.0.1:" + port);
+            while (true) {
+                try (Socket client = serverSocket.accept(); OutputStream out = client.getOutputStream()) {
+                    out.write(snapshot().getBytes(StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    // cliente de métricas desconectou; segue atendendo
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[Stats] Erro no endpoint de métricas: " + e.getMessage());
+        }
+    }
+
+    public static String snapshot() {
+        StringBuilder sb = new StringBuilder(1024);
+        for (ServerMetrics metrics : REGISTERED) metrics.appendTo(sb);
+        return sb.toString();
+    }
+}
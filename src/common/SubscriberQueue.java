@@ -0,0 +1,138 @@
+package common;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Fila de saída limitada de um assinante de notificações. Quem publica só enfileira a mesma
+ * BroadcastMessage para todos os assinantes, selada uma única vez; o envio
+ * fica com uma thread virtual por assinante com pendências, então um assinante parado bloqueia
+ * apenas a própria thread (a escrita bloqueante estaciona a thread virtual, não a portadora).
+ *
+ * Quando a fila passa do limite o assinante é rebaixado: as notificações pendentes são
+ * consolidadas, ficando só a mais recente de cada chave (ex.: o último IP de cada nome).
+ * Se continuar acima do limite mesmo assim, ou atrasado por mais de maxLag, é desconectado.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.notify.queue=N       notificações pendentes por assinante (padrão 256)
+ *   seguranca.notify.maxLagMs=N    tempo máximo acima do limite antes da desconexão (padrão 30000)
+ *   seguranca.notify.overflow=conflate|disconnect  ação ao passar do limite (padrão conflate)
+ */
+public class SubscriberQueue {
+
+    private static final int CAPACITY = Integer.getInteger("seguranca.notify.queue", 256);
+    private static final long MAX_LAG_NANOS = Long.getLong("seguranca.notify.maxLagMs", 30_000L) * 1_000_000L;
+    private static final boolean CONFLATE = !"disconnect".equalsIgnoreCase(System.getProperty("seguranca.notify.overflow"));
+
+    private static final Executor SENDERS = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("notify-", 0).factory());
+
+    private final MessageSink sink;
+    private final Function<String, String> conflationKey;
+    private final Runnable onEvict;
+    private final Log log;
+
+    private final ArrayDeque<BroadcastMessage> queue = new ArrayDeque<>(); // guardado por this
+    private boolean sending;                                     // guardado por this
+    private long lagSince;                                       // guardado por this; 0 = em dia
+    private volatile boolean evicted;
+
+    /**
+     * @param conflationKey chave de consolidação do texto de uma notificação, ou null se não houver
+     * @param onEvict       chamado uma única vez quando o assinante é desconectado
+     */
+    public SubscriberQueue(MessageSink sink, Function<String, String> conflationKey, Runnable onEvict, Log log) {
+        this.sink = sink;
+        this.conflationKey = conflationKey;
+        this.onEvict = onEvict;
+        this.log = log;
+    }
+
+    public MessageSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Enfileira a notificação sem bloquear. Retorna false se o assinante foi desconectado.
+     */
+    public boolean offer(BroadcastMessage message) {
+        if (evicted) return false;
+        String evictReason = null;
+        boolean startSender = false;
+        synchronized (this) {
+            queue.add(message);
+            long now = System.nanoTime();
+            if (queue.size() > CAPACITY) {
+                if (lagSince == 0) lagSince = now;
+                if (CONFLATE && conflationKey != null) conflate();
+                if (queue.size() > CAPACITY) evictReason = "fila de saída cheia (" + queue.size() + ")";
+            }
+            // rebaixado e ainda sem esvaziar a fila desde então
+            if (evictReason == null && lagSince != 0 && now - lagSince > MAX_LAG_NANOS) {
+                evictReason = "atrasado há mais de " + (MAX_LAG_NANOS / 1_000_000L) + " ms";
+            }
+            if (evictReason == null && !sending) {
+                sending = true;
+                startSender = true;
+            }
+        }
+        if (evictReason != null) {
+            evict(evictReason);
+            return false;
+        }
+        if (startSender) SENDERS.execute(this::drain);
+        return true;
+    }
+
+    // mantém só a notificação mais recente de cada chave, na ordem da última ocorrência
+    private void conflate() {
+        Map<String, BroadcastMessage> latest = new LinkedHashMap<>();
+        for (BroadcastMessage message : queue) {
+            String key = conflationKey.apply(message.getMessage());
+            latest.remove(key);
+            latest.put(key, message);
+        }
+        queue.clear();
+        queue.addAll(latest.values());
+    }
+
+    private void drain() {
+        while (!evicted) {
+            BroadcastMessage message;
+            synchronized (this) {
+                message = queue.poll();
+                if (message == null) {
+                    sending = false;
+                    lagSince = 0;
+                    return;
+                }
+            }
+            try {
+                sink.send(message);
+            } catch (Exception e) {
+                evict("erro ao enviar: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public void evict(String reason) {
+        synchronized (this) {
+            if (evicted) return;
+            evicted = true;
+            queue.clear();
+        }
+        log.warn("Assinante desconectado: " + reason);
+        try {
+            sink.close();
+        } catch (IOException e) {
+            // já encerrado
+        }
+        onEvict.run();
+    }
+}
@@ -0,0 +1,134 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Canal de mensagens seladas sobre um socket: estágio de enquadramento e escrita do
+ * SecureMessagePipeline.
+ *
+ * No lado servidor o formato é negociado pelo primeiro byte recebido e as respostas
+ * seguem o formato e o modo de proteção da última mensagem do cliente; no lado cliente
+ * ambos são fixados na criação.
+ */
+public class WireChannel implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final BufferPool pool;
+    private volatile WireFormat format;
+    private volatile ProtectionMode mode;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    WireChannel(Socket socket, WireFormat format, ProtectionMode mode, BufferPool pool) throws IOException {
+        if (format == WireFormat.TEXT && mode != ProtectionMode.AES_HMAC) {
+            throw new IllegalArgumentException("O formato de texto só transporta " + ProtectionMode.AES_HMAC);
+        }
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.format = format;
+        this.mode = mode;
+        this.pool = pool;
+    }
+
+    public InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    // modo de proteção da conexão: usado para abrir a última mensagem lida e selar a próxima enviada
+    public ProtectionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Bloqueia até que haja ao menos um byte da próxima mensagem, sem consumi-lo.
+     * Retorna false no fim do fluxo. Separa a espera pela rede do custo de leitura.
+     */
+    public boolean awaitMessage() throws IOException {
+        in.mark(1);
+        int first = in.read();
+        if (first < 0) return false;
+        in.reset();
+        return true;
+    }
+
+    /**
+     * Lê a próxima mensagem selada, no modo getMode(), em um buffer do pool que o chamador
+     * deve devolver. Retorna null no fim do fluxo.
+     * Lança SecurityException para uma linha legada mal formada (a linha já foi consumida).
+     */
+    public ByteBuffer readSealed() throws IOException {
+        if (format == null && !detectFormat()) return null;
+
+        if (format == WireFormat.BINARY) {
+            ProtectionMode frameMode = FrameCodec.readFrameType(in);
+            if (frameMode == null) return null;
+            ByteBuffer sealed = FrameCodec.readFrameBody(in, pool);
+            mode = frameMode;
+            return sealed;
+        }
+        return FrameCodec.readTextLine(in, pool);
+    }
+
+    public void writeSealed(ProtectionMode sealedMode, byte[] sealed, int off, int len) throws IOException {
+        // lock explícito em vez de synchronized: a escrita pode vir de uma thread virtual
+        // (notificações) e bloquear, e um monitor prenderia a thread portadora
+        writeLock.lock();
+        try {
+            // antes de qualquer leitura o servidor ainda não conhece o formato do cliente
+            if (format == WireFormat.BINARY) {
+                FrameCodec.writeFrame(out, sealedMode, sealed, off, len);
+            } else {
+                if (sealedMode != ProtectionMode.AES_HMAC) {
+                    throw new IllegalStateException("O formato de texto só transporta " + ProtectionMode.AES_HMAC);
+                }
+                FrameCodec.writeTextLine(out, sealed, off, len, pool);
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // escreve o quadro compartilhado da mensagem no formato e no modo atuais da conexão
+    public void writeBroadcast(BroadcastMessage message) throws IOException, GeneralSecurityException {
+        // antes de qualquer leitura o servidor ainda não conhece o formato: linha legada, como em writeSealed
+        byte[] frame = message.frame(format == WireFormat.BINARY ? WireFormat.BINARY : WireFormat.TEXT, mode);
+        writeLock.lock();
+        try {
+            out.write(frame);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean detectFormat() throws IOException {
+        in.mark(1);
+        int first = in.read();
+        if (first < 0) return false;
+        in.reset();
+        format = FrameCodec.isBinaryFrameStart(first) ? WireFormat.BINARY : WireFormat.TEXT;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
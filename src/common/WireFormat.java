@@ -0,0 +1,18 @@
+package common;
+
+/**
+ * Formatos de enquadramento aceitos no fio.
+ * TEXT é o formato legado "hmacHex::cifraHex\n"; BINARY é o quadro com prefixo de tamanho do FrameCodec.
+ */
+public enum WireFormat {
+    TEXT,
+    BINARY;
+
+    public static final String PROPERTY = "seguranca.wire";
+
+    // formato usado pelos clientes; -Dseguranca.wire=text para falar com servidores antigos
+    public static WireFormat clientDefault() {
+        String configured = System.getProperty(PROPERTY, "binary");
+        return "text".equalsIgnoreCase(configured) ? TEXT : BINARY;
+    }
+}
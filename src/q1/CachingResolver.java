@@ -0,0 +1,316 @@
+package q1;
+
+import common.SecureChannelContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Resolvedor com cache local, mantido em dia pelas notificações UPDATED do servidor.
+ *
+ * A conexão se registra com REGISTER_QUERY, então cada push atualiza na hora os nomes que estão
+ * no cache; consultas repetidas viram leituras em memória. O cache é limitado (LRU) e, com ttl,
+ * cada entrada também expira por tempo.
+ *
+ * Se a conexão cai, pushes podem ter sido perdidos: nenhuma entrada é usada até a reconexão, que
+ * acontece na próxima consulta. Cada push traz a versão do servidor; na reconexão o cliente pede
+ * com SYNC_SINCE só o que mudou desde a última versão vista e aplica aos nomes do cache. Se o
+ * servidor é outro (época diferente, ex.: reiniciado sem diretório de dados) ou o histórico dele
+ * não cobre mais essa versão, revalida todo o cache com RESOLVE_MANY antes de voltar a servi-lo.
+ * A época e a versão só avançam quando essa conferência termina: se ela falha, a conexão nova é
+ * fechada e a próxima consulta tenta de novo a partir da mesma versão.
+ */
+public class CachingResolver implements Closeable {
+
+    private static final class Entry {
+        final String address;
+        final long expiresAt; // System.nanoTime(); 0 = sem ttl
+
+        Entry(String address, long expiresAt) {
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final SecureChannelContext context;
+    private final long ttlNanos;
+    private final Map<String, Entry> cache; // guardado por cache
+    private final AtomicLong pushes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Consumer<String> updateListener = message -> { };
+
+    private long epoch = -1;                       // guardado por cache; -1 = desconhecida
+    private long version;                          // guardado por cache; último push ou sincronização
+    private Map<String, Long> pushedDuringSync;    // guardado por cache; versão dos pushes durante o SYNC_SINCE
+    private boolean resyncing;                     // guardado por cache; reconexão ainda sem o cache em dia
+    private long resyncVersion;                    // guardado por cache; maior versão de push durante a reconexão
+
+    private DnsResolver connection;  // guardado por this
+    private volatile boolean trusted; // cache válido para a conexão atual
+    private volatile boolean closed;
+
+    /**
+     * @param maxEntries nomes mantidos no cache; os menos usados recentemente saem primeiro
+     * @param ttlMillis  validade de cada entrada, ou 0 para depender só das notificações
+     */
+    public CachingResolver(String host, int port, SecureChannelContext context, int maxEntries, long ttlMillis) {
+        this.host = host;
+        this.port = port;
+        this.context = context;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // recebe as notificações e as mensagens sem identificador, depois de aplicadas ao cache
+    public void setUpdateListener(Consumer<String> listener) {
+        this.updateListener = listener;
+    }
+
+    // IP do nome, ou null se o servidor não o conhece
+    public String resolve(String name) throws IOException {
+        if (trusted) {
+            String cached = lookup(name);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        DnsResolver resolver = connection();
+        long pushesBefore = pushes.get();
+        String address = DnsResolver.await(resolver.resolveAsync(name));
+        if (address != null) store(name, address, pushesBefore);
+        return address;
+    }
+
+    // como resolve, com uma única ida ao servidor para todos os nomes fora do cache
+    public Map<String, String> resolveAll(Collection<String> names) throws IOException {
+        Map<String, String> resolved = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String name : names) {
+            String cached = trusted ? lookup(name) : null;
+            if (cached != null) {
+                resolved.put(name, cached);
+            } else {
+                missing.add(name);
+            }
+        }
+        hits.addAndGet(names.size() - missing.size());
+        if (missing.isEmpty()) return resolved;
+
+        misses.addAndGet(missing.size());
+        DnsResolver resolver = connection();
+        long pushesBefore = pushes.get();
+        Map<String, String> fetched = DnsResolver.await(resolver.resolveAllAsync(missing));
+        for (Map.Entry<String, String> entry : fetched.entrySet()) store(entry.getKey(), entry.getValue(), pushesBefore);
+        resolved.putAll(fetched);
+        return resolved;
+    }
+
+    // envia qualquer outro comando pela mesma conexão
+    public CompletableFuture<String> request(String command) throws IOException {
+        return connection().request(command);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private String lookup(String name) {
+        synchronized (cache) {
+            Entry entry = cache.get(name);
+            if (entry == null) return null;
+            if (entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt > 0) {
+                cache.remove(name);
+                return null;
+            }
+            return entry.address;
+        }
+    }
+
+    /**
+     * Guarda a resposta, a menos que um push tenha chegado desde o envio da consulta: a resposta
+     * pode ter sido gerada antes da atualização e chegado depois dela.
+     */
+    private void store(String name, String address, long pushesBefore) {
+        synchronized (cache) {
+            if (pushes.get() != pushesBefore) return;
+            cache.put(name, newEntry(address));
+        }
+    }
+
+    private Entry newEntry(String address) {
+        return new Entry(address, (ttlNanos > 0) ? Math.max(1, System.nanoTime() + ttlNanos) : 0);
+    }
+
+    // conecta e se registra para notificações já, em vez de na primeira consulta
+    public void connect() throws IOException {
+        connection();
+    }
+
+    // conexão atual, ou uma nova registrada para notificações e com o cache revalidado
+    private synchronized DnsResolver connection() throws IOException {
+        if (closed) throw new IOException("Resolvedor encerrado.");
+        if (connection != null && !connection.isClosed()) return connection;
+        connection = null;
+
+        DnsResolver resolver = new DnsResolver(new Socket(host, port), context);
+        resolver.setUpdateListener(this::onMessage);
+        resolver.setDisconnectListener(() -> trusted = false);
+        synchronized (cache) {
+            resyncing = true;
+            resyncVersion = 0;
+        }
+        try {
+            String registered = DnsResolver.await(resolver.request("REGISTER_QUERY"));
+            if (!registered.startsWith("OK")) throw new IOException("Registro para notificações recusado: " + registered);
+
+            // "OK;Registrado para atualizações.;VERSION <época> <versão>"; servidores antigos não a mandam
+            long registeredEpoch = -1;
+            long registeredVersion = 0;
+            for (String part : registered.split(";")) {
+                if (part.startsWith("VERSION ")) {
+                    String[] fields = part.split(" ");
+                    registeredEpoch = Long.parseLong(fields[1]);
+                    registeredVersion = Long.parseLong(fields[2]);
+                }
+            }
+
+            // a partir do registro nenhum push se perde; o que foi cacheado antes é conferido de uma vez
+            List<String> cachedNames;
+            long knownVersion;
+            boolean sameServer;
+            synchronized (cache) {
+                cachedNames = new ArrayList<>(cache.keySet());
+                knownVersion = version;
+                sameServer = registeredEpoch != -1 && registeredEpoch == epoch;
+            }
+            if (!cachedNames.isEmpty() && !(sameServer && syncSince(resolver, registeredEpoch, knownVersion))) {
+                long pushesBefore = pushes.get();
+                Map<String, String> current = DnsResolver.await(resolver.resolveAllAsync(cachedNames));
+                synchronized (cache) {
+                    if (pushes.get() != pushesBefore) {
+                        cache.clear();
+                    } else {
+                        for (String name : cachedNames) {
+                            String address = current.get(name);
+                            if (address == null) {
+                                cache.remove(name);
+                            } else {
+                                cache.put(name, newEntry(address));
+                            }
+                        }
+                    }
+                }
+            }
+            // cache em dia com o servidor: numa época nova a versão antiga não vale mais
+            synchronized (cache) {
+                epoch = registeredEpoch;
+                version = Math.max(sameServer ? Math.max(version, registeredVersion) : registeredVersion, resyncVersion);
+                resyncing = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            resolver.close();
+            synchronized (cache) {
+                resyncing = false;
+            }
+            throw e;
+        }
+        connection = resolver;
+        trusted = !resolver.isClosed();
+        return resolver;
+    }
+
+    /**
+     * Aplica aos nomes do cache as mudanças desde from, em páginas "OK;DELTA <época> <versão>;nome -> ip;...".
+     * Retorna false se o servidor só pode mandar o estado completo; o cache fica como estava.
+     */
+    private boolean syncSince(DnsResolver resolver, long serverEpoch, long from) throws IOException {
+        synchronized (cache) {
+            pushedDuringSync = new HashMap<>();
+        }
+        try {
+            long reached = from;
+            while (true) {
+                String response = DnsResolver.await(resolver.request("SYNC_SINCE " + serverEpoch + " " + reached));
+                if (!response.startsWith("OK;DELTA ")) return false;
+                String[] parts = response.split(";");
+                reached = Long.parseLong(parts[1].split(" ")[2]);
+                boolean more = false;
+                synchronized (cache) {
+                    for (int i = 2; i < parts.length; i++) {
+                        if (parts[i].equals("MORE")) {
+                            more = true;
+                            continue;
+                        }
+                        int arrow = parts[i].indexOf(" -> ");
+                        if (arrow < 0) continue;
+                        String name = parts[i].substring(0, arrow);
+                        // um push mais novo que esta página já trouxe o valor final
+                        Long pushed = pushedDuringSync.get(name);
+                        if (cache.containsKey(name) && (pushed == null || pushed <= reached)) {
+                            cache.put(name, newEntry(parts[i].substring(arrow + 4)));
+                        }
+                    }
+                    resyncVersion = Math.max(resyncVersion, reached);
+                }
+                if (!more) return true;
+            }
+        } finally {
+            synchronized (cache) {
+                pushedDuringSync = null;
+            }
+        }
+    }
+
+    // thread leitora: aplica "UPDATED;nome1;ip1;nome2;ip2...;versão" aos nomes que estão no cache
+    private void onMessage(String message) {
+        if (message.startsWith("UPDATED;")) {
+            String[] parts = message.split(";");
+            // a versão é o último campo; servidores antigos mandam só os pares
+            long pushed = (parts.length % 2 == 0) ? Long.parseLong(parts[parts.length - 1]) : 0;
+            synchronized (cache) {
+                pushes.incrementAndGet();
+                if (resyncing) {
+                    resyncVersion = Math.max(resyncVersion, pushed);
+                } else {
+                    version = Math.max(version, pushed);
+                }
+                for (int i = 1; i + 1 < parts.length; i += 2) {
+                    if (pushedDuringSync != null) pushedDuringSync.put(parts[i], pushed);
+                    if (cache.containsKey(parts[i])) cache.put(parts[i], newEntry(parts[i + 1]));
+                }
+            }
+        }
+        updateListener.accept(message);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        trusted = false;
+        if (connection != null) connection.close();
+    }
+}
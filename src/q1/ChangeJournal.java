@@ -0,0 +1,82 @@
+package q1;
+
+import java.util.Map;
+
+/**
+ * Histórico recente das atualizações, por versão, para que um assinante que reconecta receba só o
+ * que perdeu (SYNC_SINCE).
+ *
+ * Cada versão é uma entrada (um UPDATE ou um lote), em ordem e sem lacunas, num vetor circular:
+ * achar a primeira entrada depois de uma versão é uma conta, não uma busca. O histórico guarda no
+ * máximo capacity nomes; as entradas mais antigas saem primeiro e, a partir daí, versões
+ * anteriores a elas não podem mais ser atendidas.
+ */
+final class ChangeJournal {
+
+    private static final class Change {
+        final long version;
+        final Map<String, String> updates;
+
+        Change(long version, Map<String, String> updates) {
+            this.version = version;
+            this.updates = updates;
+        }
+    }
+
+    private final int capacity;
+    private Change[] ring = new Change[1024]; // guardado por this
+    private int head;                          // guardado por this
+    private int count;                         // guardado por this
+    private int names;                         // guardado por this
+    private long horizon;                      // guardado por this; versões atendidas: >= horizon
+
+    ChangeJournal(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // o histórico começa depois desta versão (ex.: a do snapshot carregado)
+    synchronized void startAfter(long version) {
+        horizon = version;
+    }
+
+    // updates não pode mais ser alterado por quem chama
+    synchronized void append(long version, Map<String, String> updates) {
+        if (count == ring.length) {
+            Change[] grown = new Change[ring.length * 2];
+            for (int i = 0; i < count; i++) grown[i] = ring[(head + i) % ring.length];
+            ring = grown;
+            head = 0;
+        }
+        ring[(head + count) % ring.length] = new Change(version, updates);
+        count++;
+        names += updates.size();
+        while (names > capacity && count > 1) {
+            Change oldest = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            names -= oldest.updates.size();
+            horizon = oldest.version;
+        }
+    }
+
+    /**
+     * Acrescenta a out o último valor de cada nome alterado depois de after e até upTo, parando
+     * antes de passar de maxNames nomes (uma entrada nunca é dividida). Retorna a versão até onde
+     * out está completo, ou -1 se after é mais antiga que o histórico.
+     */
+    synchronized long collect(long after, long upTo, int maxNames, Map<String, String> out) {
+        if (after < horizon) return -1;
+        long reached = after;
+        if (count == 0) return upTo;
+        long first = ring[head].version;
+        for (long i = Math.max(0, after + 1 - first); i < count; i++) {
+            Change change = ring[(int) ((head + i) % ring.length)];
+            if (change.version > upTo) break;
+            if (!out.isEmpty() && out.size() + change.updates.size() > maxNames) break;
+            out.putAll(change.updates);
+            reached = change.version;
+        }
+        return reached;
+    }
+}
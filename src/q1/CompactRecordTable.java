@@ -0,0 +1,403 @@
+package q1;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Tabela de registros compacta, para milhões de nomes.
+ *
+ * Cada registro ocupa poucos arrays primitivos em vez de entrada, duas Strings e dois byte[]:
+ *   - nomes em UTF-8, internados em blocos de 1 MB (no heap, ou diretos com offHeap), referenciados
+ *     por um long bloco | deslocamento | tamanho;
+ *   - tabela de endereçamento aberto (sondagem linear) de int com o índice do registro, mais o hash;
+ *   - endereço num long: IPv4 como int; IPv6 como dois longs (o segundo num array auxiliar); qualquer
+ *     outro texto numa String auxiliar. Só vira número o que volta ao mesmo texto na resposta.
+ *
+ * Leituras são otimistas (StampedLock.tryOptimisticRead) e não bloqueiam; só repetem com o lock de
+ * leitura se uma escrita ocorreu no meio. As escritas são serializadas pelo lock de escrita.
+ */
+final class CompactRecordTable implements RecordTable {
+
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int LENGTH_BITS = 16;
+    private static final int MAX_NAME_BYTES = (1 << LENGTH_BITS) - 1;
+
+    private static final long TAG_MASK = 3L << 62;
+    private static final long TAG_IPV4 = 1L << 62;
+    private static final long TAG_IPV6 = 2L << 62;
+    private static final long TAG_TEXT = 3L << 62;
+
+    private final boolean offHeap;
+    private final StampedLock lock = new StampedLock();
+
+    // escritos só com o lock de escrita; lidos de forma otimista
+    private int[] slots = new int[1024];    // índice do registro + 1; 0 = livre
+    private int[] hashes = new int[512];
+    private long[] nameRefs = new long[512];
+    private long[] values = new long[512];  // tag | IPv4, ou tag | índice auxiliar
+    private long[] ipv6Low = new long[0];   // IPv6: as duas metades aqui, no índice guardado em values
+    private long[] ipv6High = new long[0];
+    private String[] texts = new String[0];
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int size;
+
+    // só com o lock de escrita
+    private int chunkPosition = CHUNK_SIZE;
+    private int ipv6Count;
+    private int textCount;
+    private int[] freeIpv6 = new int[0];
+    private int freeIpv6Count;
+    private int[] freeTexts = new int[0];
+    private int freeTextCount;
+
+    CompactRecordTable(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    @Override
+    public String get(String name) {
+        int hash = spread(name.hashCode());
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int record = find(name, hash);
+                String value = (record < 0) ? null : valueOf(record);
+                if (lock.validate(stamp)) return value;
+            } catch (RuntimeException e) {
+                // estado lido no meio de uma escrita; repete com o lock de leitura
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            int record = find(name, hash);
+            return (record < 0) ? null : valueOf(record);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void put(String name, String value) {
+        update(name, value, true);
+    }
+
+    @Override
+    public void putIfAbsent(String name, String value) {
+        update(name, value, false);
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int current = size;
+        if (lock.validate(stamp)) return current;
+        stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        int count = size();
+        for (int record = 0; record < count; record++) {
+            String name = null;
+            String value = null;
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    name = nameOf(record);
+                    value = valueOf(record);
+                } catch (RuntimeException e) {
+                    stamp = 0;
+                }
+            }
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    name = nameOf(record);
+                    value = valueOf(record);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            action.accept(name, value);
+        }
+    }
+
+    private void update(String name, String value, boolean replace) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Nome maior que " + MAX_NAME_BYTES + " bytes.");
+        }
+        int hash = spread(name.hashCode());
+        long stamp = lock.writeLock();
+        try {
+            int record = find(name, hash);
+            if (record < 0) {
+                record = append(nameBytes, hash);
+            } else if (!replace) {
+                return;
+            }
+            setValue(record, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // índice do registro com o nome, ou -1; com leitura otimista pode ver um estado inconsistente
+    private int find(String name, int hash) {
+        int[] table = slots;
+        int[] recordHashes = hashes;
+        int mask = table.length - 1;
+        for (int probe = 0, i = hash & mask; probe <= mask; probe++, i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) return -1;
+            int record = entry - 1;
+            if (recordHashes[record] == hash && nameEquals(nameRefs[record], name)) return record;
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(long ref, String name) {
+        ByteBuffer chunk = chunks[chunkOf(ref)];
+        int offset = offsetOf(ref);
+        int length = lengthOf(ref);
+        if (length != name.length()) {
+            // só nomes não ASCII têm mais bytes que caracteres
+            return length > name.length() && decode(chunk, offset, length).equals(name);
+        }
+        for (int i = 0; i < length; i++) {
+            if ((chunk.get(offset + i) & 0xFF) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String nameOf(int record) {
+        long ref = nameRefs[record];
+        return decode(chunks[chunkOf(ref)], offsetOf(ref), lengthOf(ref));
+    }
+
+    private String valueOf(int record) {
+        long value = values[record];
+        long tag = value & TAG_MASK;
+        if (tag == TAG_IPV4) return formatIpv4((int) value);
+        int index = (int) value;
+        if (tag == TAG_IPV6) return formatIpv6(ipv6High[index], ipv6Low[index]);
+        return texts[index];
+    }
+
+    // lock de escrita: grava o nome e insere o registro na tabela
+    private int append(byte[] nameBytes, int hash) {
+        int record = size;
+        if (record == hashes.length) {
+            int capacity = record + (record >> 1);
+            hashes = Arrays.copyOf(hashes, capacity);
+            nameRefs = Arrays.copyOf(nameRefs, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        hashes[record] = hash;
+        nameRefs[record] = storeName(nameBytes);
+        if ((record + 1) * 4L > slots.length * 3L) {
+            // carga máxima de 3/4: a nova tabela é montada à parte e publicada de uma vez
+            int[] larger = new int[slots.length * 2];
+            for (int i = 0; i < record; i++) insert(larger, i, hashes[i]);
+            slots = larger;
+        }
+        insert(slots, record, hash);
+        size = record + 1;
+        return record;
+    }
+
+    private static void insert(int[] table, int record, int hash) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != 0) i = (i + 1) & mask;
+        table[i] = record + 1;
+    }
+
+    private long storeName(byte[] nameBytes) {
+        if (chunkPosition + nameBytes.length > CHUNK_SIZE) {
+            ByteBuffer chunk = offHeap ? ByteBuffer.allocateDirect(CHUNK_SIZE) : ByteBuffer.allocate(CHUNK_SIZE);
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = chunk;
+            chunks = grown;
+            chunkPosition = 0;
+        }
+        int chunkIndex = chunks.length - 1;
+        chunks[chunkIndex].put(chunkPosition, nameBytes);
+        long ref = ((long) chunkIndex << (CHUNK_BITS + LENGTH_BITS)) | ((long) chunkPosition << LENGTH_BITS) | nameBytes.length;
+        chunkPosition += nameBytes.length;
+        return ref;
+    }
+
+    // lock de escrita: substitui o valor, devolvendo o espaço auxiliar do valor anterior se o tipo mudou
+    private void setValue(int record, String value) {
+        long previous = values[record];
+        long previousTag = previous & TAG_MASK;
+        int ipv4 = parseIpv4(value);
+        if (ipv4 != -1 || "255.255.255.255".equals(value)) {
+            releaseAuxiliary(previousTag, (int) previous);
+            values[record] = TAG_IPV4 | (ipv4 & 0xFFFFFFFFL);
+            return;
+        }
+        long[] ipv6 = parseIpv6(value);
+        if (ipv6 != null) {
+            int index = (previousTag == TAG_IPV6) ? (int) previous : allocateIpv6();
+            if (previousTag != TAG_IPV6) releaseAuxiliary(previousTag, (int) previous);
+            ipv6High[index] = ipv6[0];
+            ipv6Low[index] = ipv6[1];
+            values[record] = TAG_IPV6 | index;
+            return;
+        }
+        int index = (previousTag == TAG_TEXT) ? (int) previous : allocateText();
+        if (previousTag != TAG_TEXT) releaseAuxiliary(previousTag, (int) previous);
+        texts[index] = value;
+        values[record] = TAG_TEXT | index;
+    }
+
+    private void releaseAuxiliary(long tag, int index) {
+        if (tag == TAG_IPV6) {
+            if (freeIpv6Count == freeIpv6.length) freeIpv6 = Arrays.copyOf(freeIpv6, Math.max(8, freeIpv6Count * 2));
+            freeIpv6[freeIpv6Count++] = index;
+        } else if (tag == TAG_TEXT) {
+            texts[index] = null;
+            if (freeTextCount == freeTexts.length) freeTexts = Arrays.copyOf(freeTexts, Math.max(8, freeTextCount * 2));
+            freeTexts[freeTextCount++] = index;
+        }
+    }
+
+    private int allocateIpv6() {
+        if (freeIpv6Count > 0) return freeIpv6[--freeIpv6Count];
+        if (ipv6Count == ipv6Low.length) {
+            int capacity = Math.max(8, ipv6Count * 2);
+            ipv6High = Arrays.copyOf(ipv6High, capacity);
+            ipv6Low = Arrays.copyOf(ipv6Low, capacity);
+        }
+        return ipv6Count++;
+    }
+
+    private int allocateText() {
+        if (freeTextCount > 0) return freeTexts[--freeTextCount];
+        if (textCount == texts.length) texts = Arrays.copyOf(texts, Math.max(8, textCount * 2));
+        return textCount++;
+    }
+
+    private static int chunkOf(long ref) {
+        return (int) (ref >>> (CHUNK_BITS + LENGTH_BITS));
+    }
+
+    private static int offsetOf(long ref) {
+        return (int) (ref >>> LENGTH_BITS) & (CHUNK_SIZE - 1);
+    }
+
+    private static int lengthOf(long ref) {
+        return (int) ref & MAX_NAME_BYTES;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String decode(ByteBuffer chunk, int offset, int length) {
+        byte[] bytes = new byte[length];
+        chunk.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // IPv4 em notação decimal canônica (sem zeros à esquerda); -1 se não for (ou for 255.255.255.255)
+    static int parseIpv4(String value) {
+        int length = value.length();
+        if (length < 7 || length > 15) return -1;
+        int address = 0;
+        int octets = 0;
+        int i = 0;
+        while (i <= length) {
+            int start = i;
+            int octet = 0;
+            while (i < length && value.charAt(i) != '.') {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                octet = octet * 10 + (c - '0');
+                i++;
+            }
+            int digits = i - start;
+            if (digits == 0 || digits > 3 || octet > 255 || (digits > 1 && value.charAt(start) == '0')) return -1;
+            address = (address << 8) | octet;
+            octets++;
+            i++;
+        }
+        return (octets == 4) ? address : -1;
+    }
+
+    static String formatIpv4(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "."
+                + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    // IPv6 cujo texto é exatamente a forma canônica (RFC 5952); null para qualquer outro texto
+    static long[] parseIpv6(String value) {
+        if (value.indexOf(':') < 0) return null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // só literais: nunca deixa InetAddress tentar resolver um nome
+            if (c != ':' && Character.digit(c, 16) < 0) return null;
+        }
+        byte[] bytes;
+        try {
+            InetAddress address = InetAddress.getByName(value);
+            if (!(address instanceof Inet6Address)) return null;
+            bytes = address.getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) high = (high << 8) | (bytes[i] & 0xFF);
+        for (int i = 8; i < 16; i++) low = (low << 8) | (bytes[i] & 0xFF);
+        return formatIpv6(high, low).equals(value) ? new long[]{high, low} : null;
+    }
+
+    static String formatIpv6(long high, long low) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - 16 * i)) & 0xFFFF;
+            groups[i + 4] = (int) (low >>> (48 - 16 * i)) & 0xFFFF;
+        }
+        // maior sequência de grupos zero (ao menos dois; a primeira em caso de empate) vira "::"
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < 8 && groups[i] == 0) i++;
+            if (i - start > bestLength) {
+                bestStart = start;
+                bestLength = i - start;
+            }
+        }
+        StringBuilder text = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                text.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (text.length() > 0 && text.charAt(text.length() - 1) != ':') text.append(':');
+            text.append(Integer.toHexString(groups[i]));
+        }
+        return text.toString();
+    }
+}
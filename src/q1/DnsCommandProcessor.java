@@ -0,0 +1,442 @@
+package q1;
+
+import common.BroadcastMessage;
+import common.FrameCodec;
+import common.Log;
+import common.MessageSink;
+import common.NioServer;
+import common.SecureChannelContext;
+import common.ServerMetrics;
+import common.SubscriberQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comandos do Mini-DNS, compartilhados pelo modo de uma thread por conexão (ClientHandler)
+ * e pelo modo não bloqueante (NioServer).
+ *
+ * Um comando pode vir prefixado por um identificador, "#<id> RESOLVE nome"; a resposta volta com o
+ * mesmo prefixo, "#<id> OK;...", para que o cliente mantenha várias requisições em voo na mesma
+ * conexão e as distinga das notificações. Sem prefixo o protocolo é o original.
+ *
+ * Com -Dseguranca.notify.coalesceMs=N (padrão 0, desligado) as atualizações de uma janela de N ms
+ * saem numa única notificação "UPDATED;nome1;ip1;nome2;ip2...", com o último IP de cada nome.
+ *
+ * RESOLVE_PREFIX e LIST respondem em páginas de até PAGE_SIZE nomes, em ordem; se houver mais, a
+ * resposta termina com "MORE <cursor>" e a próxima página é pedida com o cursor como segundo
+ * argumento. Assim uma listagem enorme nunca vira uma única resposta.
+ *
+ * Cada notificação termina com a versão da última atualização que contém,
+ * "UPDATED;nome1;ip1[;nome2;ip2...];<versão>", e as notificações saem em ordem de versão. O
+ * REGISTER_QUERY informa a época e a versão atuais; um assinante que reconecta pede o que perdeu com
+ * SYNC_SINCE <época> <versão> e recebe "OK;DELTA <época> <versão>;nome -> ip;..." (com "MORE" se
+ * for preciso pedir de novo a partir da versão devolvida) ou, se o histórico não cobre mais a
+ * versão, "OK;SNAPSHOT <época> <versão>" e busca o estado completo com SYNC_SNAPSHOT [cursor].
+ *
+ * Numa réplica (attachReplica) o UPDATE é encaminhado ao primário e o valor chega de volta pelo
+ * fluxo de replicação; no primário (attachReplicationPrimary) cada UPDATE gravado é publicado.
+ */
+public class DnsCommandProcessor implements NioServer.MessageHandler {
+
+    private static final Log LOG = Log.get("Handler");
+    private static final long COALESCE_MS = Long.getLong("seguranca.notify.coalesceMs", 0L);
+    public static final int MAX_RESOLVE_MANY = 1000;
+    public static final int MAX_UPDATE_BATCH = 1000;
+    // folga para o prefixo e a selagem dentro do limite de quadro
+    private static final int MAX_RESPONSE_LENGTH = FrameCodec.MAX_FRAME_LENGTH - 1024;
+    public static final int PAGE_SIZE = 500;
+    // nomes examinados por página de LIST, para que um padrão raro não percorra o índice inteiro de uma vez
+    private static final int MAX_SCANNED = 20 * PAGE_SIZE;
+
+    private final DnsStore store;
+    private final SecureChannelContext secureContext;
+    private final ServerMetrics metrics;
+    // cada assinante com sua fila de saída; o UPDATE só enfileira
+    private final Map<MessageSink, SubscriberQueue> subscribers = new ConcurrentHashMap<>();
+    // atualizações aguardando o fim da janela de consolidação, nome -> último IP
+    private final Map<String, String> pendingUpdates = new LinkedHashMap<>(); // guardado por pendingUpdates
+    private final ScheduledExecutorService coalescer;
+    private long pendingVersion; // guardado por pendingUpdates
+    // atualizações gravadas aguardando as de versão menor, para notificar em ordem
+    private final TreeMap<Long, Map<String, String>> unpublished = new TreeMap<>(); // guardado por unpublished
+    private long publishedVersion;                                                  // guardado por unpublished
+    private volatile ReplicationPrimary replicationPrimary;
+    private volatile ReplicationReplica replica;
+
+    public DnsCommandProcessor(DnsStore store, SecureChannelContext secureContext, ServerMetrics metrics) {
+        this.store = store;
+        this.secureContext = secureContext;
+        this.metrics = metrics;
+        this.publishedVersion = store.version();
+        this.coalescer = (COALESCE_MS > 0) ? Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "notify-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public void attachReplicationPrimary(ReplicationPrimary replicationPrimary) {
+        this.replicationPrimary = replicationPrimary;
+    }
+
+    public void attachReplica(ReplicationReplica replica) {
+        this.replica = replica;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public String handle(String command, MessageSink origin) {
+        // o texto decifrado só aparece em DEBUG
+        if (LOG.isDebugEnabled()) LOG.debug("HMAC verificado. Comando decifrado: " + command);
+        String requestId = null;
+        if (command.startsWith("#")) {
+            int space = command.indexOf(' ');
+            if (space < 0) return "ERROR;Formato inválido. Use: #<id> <comando>";
+            requestId = command.substring(0, space);
+            command = command.substring(space + 1);
+        }
+        String response = process(command, origin);
+        if (requestId != null) response = requestId + " " + response;
+        if (LOG.isDebugEnabled()) LOG.debug("Enviando resposta (plana): " + response);
+        return response;
+    }
+
+    @Override
+    public void disconnected(MessageSink origin) {
+        if (subscribers.remove(origin) != null) {
+            LOG.info("Cliente requisitante removido das atualizações.");
+        }
+    }
+
+    String process(String command, MessageSink origin) {
+        String[] parts = command.split(" ");
+        String operation = parts[0].toUpperCase();
+
+        switch (operation) {
+            case "REGISTER_QUERY": // cliente requisitante se registra
+                SubscriberQueue queue = new SubscriberQueue(origin, DnsCommandProcessor::updatedName, () -> {
+                    subscribers.remove(origin);
+                    metrics.subscriberEvicted();
+                }, LOG);
+                long registeredVersion;
+                synchronized (unpublished) {
+                    // toda notificação depois desta versão chega a este assinante
+                    if (subscribers.putIfAbsent(origin, queue) == null) {
+                        LOG.info("Cliente requisitante registrado para atualizações.");
+                    }
+                    registeredVersion = publishedVersion;
+                }
+                return "OK;Registrado para atualizações.;VERSION " + store.epoch() + " " + registeredVersion;
+
+            case "SYNC_SINCE": // o que mudou desde a versão que o assinante já tem
+                if (parts.length < 3) return "ERROR;Formato inválido. Use: SYNC_SINCE <época> <versão>";
+                try {
+                    return syncSince(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                } catch (NumberFormatException e) {
+                    return "ERROR;Época e versão devem ser números.";
+                }
+
+            case "SYNC_SNAPSHOT": // estado completo, paginado como RESOLVE_PREFIX
+                if (!store.hasNameIndex()) return "ERROR;Consultas por prefixo desativadas neste servidor.";
+                return page("", null, (parts.length > 1) ? parts[1] : null, true);
+
+            case "RESOLVE": // cliente requisitante consulta
+                if (parts.length < 2) return "ERROR;Formato inválido. Use: RESOLVE <nome>";
+                String name = parts[1];
+                String ip = store.get(name);
+                return (ip != null) ? "OK;" + name + " -> " + ip : "ERROR;Nome não encontrado: " + name;
+
+            case "RESOLVE_MANY": // vários nomes, uma única resposta; nomes desconhecidos ficam de fora
+                if (parts.length < 2) return "ERROR;Formato inválido. Use: RESOLVE_MANY <nome1> <nome2> ...";
+                if (parts.length - 1 > MAX_RESOLVE_MANY) {
+                    return "ERROR;Máximo de " + MAX_RESOLVE_MANY + " nomes por RESOLVE_MANY.";
+                }
+                StringBuilder resolved = new StringBuilder("OK");
+                for (int i = 1; i < parts.length; i++) {
+                    String address = store.get(parts[i]);
+                    if (address != null) resolved.append(';').append(parts[i]).append(" -> ").append(address);
+                }
+                if (resolved.length() > MAX_RESPONSE_LENGTH) return "ERROR;Resposta grande demais, divida a consulta.";
+                return resolved.toString();
+
+            case "RESOLVE_PREFIX": // nomes com o prefixo e seus IPs, paginado
+                if (parts.length < 2) return "ERROR;Formato inválido. Use: RESOLVE_PREFIX <prefixo> [cursor]";
+                if (!store.hasNameIndex()) return "ERROR;Consultas por prefixo desativadas neste servidor.";
+                return page(parts[1], null, (parts.length > 2) ? parts[2] : null, true);
+
+            case "LIST": // nomes que casam com o padrão (* e ?), paginado
+                if (parts.length < 2) return "ERROR;Formato inválido. Use: LIST <padrão> [cursor]";
+                if (!store.hasNameIndex()) return "ERROR;Consultas por prefixo desativadas neste servidor.";
+                String pattern = parts[1];
+                int wildcard = firstWildcard(pattern);
+                return page(pattern.substring(0, wildcard), (wildcard < pattern.length()) ? pattern : null,
+                        (parts.length > 2) ? parts[2] : null, false);
+
+            case "UPDATE": // cliente registrador atualiza
+                if (parts.length < 3) return "ERROR;Formato inválido. Use: UPDATE <nome> <novo_ip>";
+                String nameToUpdate = parts[1];
+                String newIp = parts[2];
+
+                ReplicationReplica primaryLink = replica;
+                if (primaryLink != null) return primaryLink.forward("UPDATE " + nameToUpdate + " " + newIp);
+
+                if (!canUpdate(nameToUpdate)) {
+                    return "ERROR;Permissão negada para atualizar " + nameToUpdate;
+                }
+                if (!DnsStore.isStorable(nameToUpdate) || !DnsStore.isStorable(newIp)) {
+                    return "ERROR;Nome ou IP com mais de " + DnsStore.MAX_STRING_BYTES + " bytes.";
+                }
+
+                long version;
+                try {
+                    version = store.put(nameToUpdate, newIp);
+                } catch (IOException e) {
+                    LOG.error("Falha ao gravar atualização de " + nameToUpdate + ": " + e.getMessage());
+                    return "ERROR;Falha ao gravar atualização de " + nameToUpdate;
+                }
+                LOG.info("BINDING DINÂMICO: " + nameToUpdate + " atualizado para " + newIp);
+                ReplicationPrimary primary = replicationPrimary;
+                if (primary != null) primary.publish(List.of(nameToUpdate));
+                published(version, Map.of(nameToUpdate, newIp));
+                return "OK;Atualizado com sucesso: " + nameToUpdate + " -> " + newIp;
+
+            case "UPDATE_BATCH": // vários nomes: todos ou nenhum, com uma única notificação
+                if (parts.length < 3 || parts.length % 2 == 0) {
+                    return "ERROR;Formato inválido. Use: UPDATE_BATCH <nome1> <ip1> <nome2> <ip2> ...";
+                }
+                if ((parts.length - 1) / 2 > MAX_UPDATE_BATCH) {
+                    return "ERROR;Máximo de " + MAX_UPDATE_BATCH + " nomes por UPDATE_BATCH.";
+                }
+                ReplicationReplica batchPrimaryLink = replica;
+                if (batchPrimaryLink != null) return batchPrimaryLink.forward(command);
+
+                // o último IP de um nome repetido vence
+                Map<String, String> updates = new LinkedHashMap<>();
+                StringBuilder denied = new StringBuilder();
+                for (int i = 1; i < parts.length; i += 2) {
+                    if (!DnsStore.isStorable(parts[i]) || !DnsStore.isStorable(parts[i + 1])) {
+                        return "ERROR;Nome ou IP com mais de " + DnsStore.MAX_STRING_BYTES + " bytes no lote, nada foi atualizado";
+                    }
+                    if (canUpdate(parts[i])) {
+                        updates.put(parts[i], parts[i + 1]);
+                    } else {
+                        denied.append(';').append(parts[i]);
+                    }
+                }
+                // nomes recusados depois do texto, um por campo
+                if (denied.length() > 0) return "ERROR;Permissão negada no lote, nada foi atualizado" + denied;
+
+                long batchVersion;
+                try {
+                    batchVersion = store.putAll(updates);
+                } catch (IOException e) {
+                    LOG.error("Falha ao gravar lote de " + updates.size() + " atualizações: " + e.getMessage());
+                    return "ERROR;Falha ao gravar o lote, nada foi atualizado";
+                }
+                LOG.info("BINDING DINÂMICO: lote de " + updates.size() + " nomes atualizado");
+                ReplicationPrimary batchPrimary = replicationPrimary;
+                if (batchPrimary != null) batchPrimary.publish(updates.keySet());
+                published(batchVersion, updates);
+                return "OK;Lote atualizado: " + updates.size() + " nomes";
+
+            default:
+                return "ERROR;Comando desconhecido: " + operation;
+        }
+    }
+
+    /**
+     * Uma página de nomes com o prefixo, posteriores ao cursor, filtrados pelo padrão (se houver).
+     * "OK;nome1;nome2..." ou, com IPs, "OK;nome1 -> ip1;..."; "MORE <cursor>" no fim se houver mais.
+     */
+    private String page(String prefix, String pattern, String cursor, boolean withAddress) {
+        StringBuilder response = new StringBuilder("OK");
+        List<String> candidates = new ArrayList<>(PAGE_SIZE);
+        int returned = 0;
+        int scanned = 0;
+        while (true) {
+            candidates.clear();
+            boolean more = store.names(prefix, cursor, PAGE_SIZE, candidates);
+            for (int i = 0; i < candidates.size(); i++) {
+                String name = candidates.get(i);
+                boolean remaining = more || i + 1 < candidates.size();
+                if (pattern == null || matches(pattern, name)) {
+                    String entry = name;
+                    if (withAddress) {
+                        String ip = store.get(name);
+                        if (ip == null) continue;
+                        entry = name + " -> " + ip;
+                    }
+                    // reserva espaço para o MORE com o nome como cursor
+                    if (response.length() + entry.length() + name.length() + 7 > MAX_RESPONSE_LENGTH) {
+                        return response.append(";MORE ").append(cursor).toString();
+                    }
+                    response.append(';').append(entry);
+                    returned++;
+                }
+                cursor = name;
+                if (remaining && (returned == PAGE_SIZE || ++scanned >= MAX_SCANNED)) {
+                    return response.append(";MORE ").append(cursor).toString();
+                }
+            }
+            if (!more) return response.toString();
+        }
+    }
+
+    private static int firstWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') return i;
+        }
+        return pattern.length();
+    }
+
+    // casamento de padrão com * (qualquer sequência) e ? (um caractere), sem recursão
+    static boolean matches(String pattern, String name) {
+        int p = 0;
+        int n = 0;
+        int star = -1;
+        int resume = 0;
+        while (n < name.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+                p++;
+                n++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                resume = n;
+            } else if (star >= 0) {
+                p = star + 1;
+                n = ++resume;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
+    }
+
+    private static boolean canUpdate(String name) {
+        return name.equals("servidor1") || name.equals("servidor4") || name.equals("servidor9");
+    }
+
+    /**
+     * Aplica valores recebidos do primário; os assinantes locais só são notificados dos que mudaram,
+     * numa única notificação.
+     */
+    void applyReplicated(Map<String, String> values) {
+        Map<String, String> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            if (!value.getValue().equals(store.get(value.getKey()))) changed.put(value.getKey(), value.getValue());
+        }
+        if (changed.isEmpty()) return;
+        long version;
+        try {
+            version = store.putAll(changed);
+        } catch (IOException e) {
+            LOG.error("Falha ao gravar " + changed.size() + " valores replicados: " + e.getMessage());
+            return;
+        }
+        published(version, changed);
+    }
+
+    /**
+     * Notifica a atualização gravada com a versão dada assim que todas as anteriores tiverem sido
+     * notificadas: gravações concorrentes terminam fora de ordem, as notificações não. Uma versão que
+     * falhou ao gravar nunca chega aqui, mas depois de uma falha de gravação o armazenamento recusa
+     * todas as seguintes.
+     */
+    private void published(long version, Map<String, String> updates) {
+        synchronized (unpublished) {
+            unpublished.put(version, updates);
+            Map.Entry<Long, Map<String, String>> next;
+            while ((next = unpublished.firstEntry()) != null && next.getKey() == publishedVersion + 1) {
+                unpublished.pollFirstEntry();
+                publishedVersion = next.getKey();
+                notifySubscribers(next.getValue(), publishedVersion);
+            }
+        }
+    }
+
+    private String syncSince(long epoch, long version) {
+        long current;
+        synchronized (unpublished) {
+            current = publishedVersion;
+        }
+        Map<String, String> changes = new LinkedHashMap<>();
+        long reached = (epoch == store.epoch() && version <= current)
+                ? store.changesSince(version, current, PAGE_SIZE, changes) : -1;
+        if (reached < 0) return "OK;SNAPSHOT " + store.epoch() + " " + current;
+
+        StringBuilder response = new StringBuilder("OK;DELTA ").append(store.epoch()).append(' ').append(reached);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            response.append(';').append(change.getKey()).append(" -> ").append(change.getValue());
+        }
+        if (reached < current) response.append(";MORE");
+        // um único lote maior que a resposta: só o estado completo resolve
+        if (response.length() > MAX_RESPONSE_LENGTH) return "OK;SNAPSHOT " + store.epoch() + " " + current;
+        return response.toString();
+    }
+
+    private void notifySubscribers(Map<String, String> updates, long version) {
+        if (coalescer == null) {
+            StringBuilder message = new StringBuilder("UPDATED");
+            for (Map.Entry<String, String> update : updates.entrySet()) {
+                message.append(';').append(update.getKey()).append(';').append(update.getValue());
+            }
+            publish(message.append(';').append(version).toString());
+            return;
+        }
+        synchronized (pendingUpdates) {
+            boolean first = pendingUpdates.isEmpty();
+            pendingUpdates.putAll(updates);
+            pendingVersion = version;
+            if (first) coalescer.schedule(this::flushPendingUpdates, COALESCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPendingUpdates() {
+        StringBuilder message = new StringBuilder("UPDATED");
+        synchronized (pendingUpdates) {
+            for (Map.Entry<String, String> update : pendingUpdates.entrySet()) {
+                message.append(';').append(update.getKey()).append(';').append(update.getValue());
+            }
+            message.append(';').append(pendingVersion);
+            pendingUpdates.clear();
+        }
+        publish(message.toString());
+    }
+
+    // sela uma única vez e apenas enfileira; o envio é assíncrono, por assinante
+    private void publish(String message) {
+        if (subscribers.isEmpty()) return;
+        LOG.info("Notificando " + subscribers.size() + " clientes...");
+        BroadcastMessage broadcast = new BroadcastMessage(message, secureContext);
+        for (SubscriberQueue subscriber : subscribers.values()) {
+            subscriber.offer(broadcast);
+        }
+    }
+
+    /**
+     * Chave de consolidação de "UPDATED;nome1;ip1;nome2;ip2...;versão": os nomes, sem os IPs nem a
+     * versão. Uma notificação mais recente com os mesmos nomes torna a anterior desnecessária, e a
+     * versão dela, maior, cobre a da descartada.
+     */
+    static String updatedName(String message) {
+        String[] parts = message.split(";");
+        if (parts.length <= 4) return parts[1];
+        StringBuilder names = new StringBuilder();
+        for (int i = 1; i + 1 < parts.length; i += 2) names.append(parts[i]).append(';');
+        return names.toString();
+    }
+}
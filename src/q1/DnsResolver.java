@@ -0,0 +1,249 @@
+package q1;
+
+import common.RateLimiter;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Cliente do Mini-DNS com várias consultas em voo na mesma conexão.
+ *
+ * Cada requisição leva um identificador ("#<id> comando") e uma thread leitora entrega cada
+ * resposta à requisição correspondente; notificações "UPDATED;..." vão para o listener.
+ * resolveAll divide os nomes em lotes de RESOLVE_MANY e envia todos sem esperar respostas,
+ * então milhares de nomes custam praticamente uma única ida e volta. resolvePrefix e list seguem
+ * as páginas de RESOLVE_PREFIX e LIST e entregam os nomes à medida que chegam.
+ *
+ * Uma requisição recusada pelo limite de taxa do servidor volta como "ERROR;THROTTLED" sem o
+ * identificador (o servidor não chega a abri-la); como as respostas de uma conexão saem em ordem,
+ * ela é a requisição pendente mais antiga, que falha com IOException.
+ *
+ * Uma requisição sem resposta em TIMEOUT_MS falha com TimeoutException e sai das pendentes; uma
+ * resposta que chegue depois é descartada.
+ */
+public class DnsResolver implements Closeable {
+
+    // nomes e caracteres por RESOLVE_MANY, para que requisição e resposta caibam num quadro
+    private static final int BATCH_NAMES = 500;
+    private static final int BATCH_CHARS = 16 * 1024;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final SecureMessagePipeline pipeline;
+    private final Map<Long, CompletableFuture<String>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile Consumer<String> updateListener = message -> { };
+    private volatile Runnable disconnectListener = () -> { };
+    private volatile boolean closed;
+
+    public DnsResolver(Socket socket, SecureChannelContext context) throws IOException {
+        this.pipeline = SecureMessagePipeline.forClient(socket, context);
+        Thread reader = new Thread(this::readResponses, "dns-resolver-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // recebe as notificações UPDATED e as mensagens sem identificador, na thread leitora
+    public void setUpdateListener(Consumer<String> listener) {
+        this.updateListener = listener;
+    }
+
+    // chamado uma vez, na thread leitora, quando a conexão termina (inclusive por close())
+    public void setDisconnectListener(Runnable listener) {
+        this.disconnectListener = listener;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Envia o comando sem esperar a resposta. O futuro termina com a resposta sem o identificador,
+     * ou com TimeoutException se ela não chegar em TIMEOUT_MS.
+     */
+    public CompletableFuture<String> request(String command) {
+        long id = nextId.incrementAndGet();
+        CompletableFuture<String> response = new CompletableFuture<>();
+        pending.put(id, response);
+        response.orTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, error) -> pending.remove(id, response));
+        if (closed) {
+            pending.remove(id);
+            response.completeExceptionally(new IOException("Conexão encerrada."));
+            return response;
+        }
+        try {
+            pipeline.send("#" + id + " " + command);
+        } catch (Exception e) {
+            pending.remove(id);
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    // IP do nome, ou null se o servidor não o conhece
+    public CompletableFuture<String> resolveAsync(String name) {
+        return request("RESOLVE " + name).thenApply(response -> {
+            if (!response.startsWith("OK;")) return null;
+            int arrow = response.indexOf(" -> ");
+            return (arrow < 0) ? null : response.substring(arrow + 4);
+        });
+    }
+
+    public String resolve(String name) throws IOException {
+        return await(resolveAsync(name));
+    }
+
+    /**
+     * Resolve todos os nomes com lotes de RESOLVE_MANY enviados de uma vez.
+     * O mapa só contém os nomes que o servidor conhece.
+     */
+    public CompletableFuture<Map<String, String>> resolveAllAsync(Collection<String> names) {
+        List<CompletableFuture<String>> batches = new ArrayList<>();
+        StringBuilder command = new StringBuilder("RESOLVE_MANY");
+        int count = 0;
+        for (String name : names) {
+            if (count == BATCH_NAMES || (count > 0 && command.length() + name.length() >= BATCH_CHARS)) {
+                batches.add(request(command.toString()));
+                command.setLength("RESOLVE_MANY".length());
+                count = 0;
+            }
+            command.append(' ').append(name);
+            count++;
+        }
+        if (count > 0) batches.add(request(command.toString()));
+
+        return CompletableFuture.allOf(batches.toArray(CompletableFuture<?>[]::new)).thenApply(ignored -> {
+            Map<String, String> resolved = new HashMap<>();
+            for (CompletableFuture<String> batch : batches) {
+                String response = batch.join();
+                if (!response.startsWith("OK")) throw new IllegalStateException(response);
+                for (String entry : response.split(";")) {
+                    int arrow = entry.indexOf(" -> ");
+                    if (arrow > 0) resolved.put(entry.substring(0, arrow), entry.substring(arrow + 4));
+                }
+            }
+            return resolved;
+        });
+    }
+
+    public Map<String, String> resolveAll(Collection<String> names) throws IOException {
+        return await(resolveAllAsync(names));
+    }
+
+    /**
+     * Entrega, em ordem, cada nome com o prefixo e seu IP, buscando uma página de cada vez.
+     */
+    public void resolvePrefix(String prefix, BiConsumer<String, String> action) throws IOException {
+        pages("RESOLVE_PREFIX " + prefix, entry -> {
+            int arrow = entry.indexOf(" -> ");
+            if (arrow > 0) action.accept(entry.substring(0, arrow), entry.substring(arrow + 4));
+        });
+    }
+
+    // nomes que casam com o padrão (* e ?), em ordem
+    public void list(String pattern, Consumer<String> action) throws IOException {
+        pages("LIST " + pattern, action);
+    }
+
+    private void pages(String command, Consumer<String> action) throws IOException {
+        String cursor = null;
+        do {
+            String response = await(request((cursor == null) ? command : command + " " + cursor));
+            if (!response.startsWith("OK")) throw new IOException(response);
+            cursor = null;
+            String[] entries = response.split(";");
+            for (int i = 1; i < entries.length; i++) {
+                if (i == entries.length - 1 && entries[i].startsWith("MORE ")) {
+                    cursor = entries[i].substring(5);
+                } else {
+                    action.accept(entries[i]);
+                }
+            }
+        } while (cursor != null);
+    }
+
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof TimeoutException) throw new IOException("Sem resposta do servidor em " + TIMEOUT_MS + " ms.");
+            throw new IOException(cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new IOException("Sem resposta do servidor em " + TIMEOUT_MS + " ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompido.", e);
+        }
+    }
+
+    private void readResponses() {
+        IOException failure = new IOException("Conexão encerrada pelo servidor.");
+        try {
+            while (true) {
+                String message;
+                try {
+                    message = pipeline.receive();
+                } catch (SecurityException e) {
+                    System.err.println("[DnsResolver] FALHA DE SEGURANÇA: " + e.getMessage() + " Mensagem descartada.");
+                    continue;
+                }
+                if (message == null) break;
+                dispatch(message);
+            }
+        } catch (Exception e) {
+            if (!closed) failure = new IOException("Erro ao ler resposta: " + e.getMessage(), e);
+        }
+        closed = true;
+        for (CompletableFuture<String> response : pending.values()) response.completeExceptionally(failure);
+        pending.clear();
+        disconnectListener.run();
+    }
+
+    private void dispatch(String message) {
+        if (message.startsWith("#")) {
+            int space = message.indexOf(' ');
+            try {
+                CompletableFuture<String> response = pending.remove(Long.parseLong(message.substring(1, space)));
+                if (response != null) response.complete(message.substring(space + 1));
+                return;
+            } catch (RuntimeException e) {
+                // identificador inválido: entregue como mensagem avulsa
+            }
+        }
+        if (message.equals(RateLimiter.THROTTLED_RESPONSE)) {
+            long oldest = Long.MAX_VALUE;
+            for (Long id : pending.keySet()) oldest = Math.min(oldest, id);
+            CompletableFuture<String> response = pending.remove(oldest);
+            if (response != null) {
+                response.completeExceptionally(new IOException("Requisição recusada pelo limite de taxa do servidor."));
+                return;
+            }
+        }
+        // notificações e respostas sem identificador (ex.: servidor sobrecarregado)
+        updateListener.accept(message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        pipeline.close();
+    }
+}
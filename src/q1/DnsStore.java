@@ -0,0 +1,652 @@
+package q1;
+
+import common.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Registros do Mini-DNS, opcionalmente duráveis.
+ *
+ * Com diretório de dados cada UPDATE é gravado num log append-only (wal-<seq>.log) antes da
+ * resposta. Uma única thread escreve e faz o fsync de todas as atualizações acumuladas enquanto o
+ * fsync anterior rodava (group commit), então a vazão não fica limitada a um fsync por UPDATE.
+ * A cada SNAPSHOT_EVERY registros o log é rotacionado e o mapa inteiro é gravado num snapshot
+ * compactado (snapshot-<seq>.dat); logs e snapshots anteriores são apagados em seguida.
+ *
+ * Na partida o snapshot mais recente é carregado e só a cauda do log é reaplicada. Os dois são
+ * lidos em blocos com leituras posicionais num buffer reaproveitado, sem mapear os arquivos: um
+ * arquivo mapeado não pode ser truncado nem apagado no Windows, e o log é truncado na recuperação
+ * e os dois são apagados pela compactação.
+ * Reaplicar é idempotente (último valor de cada nome vence), então o snapshot pode ser gravado
+ * com atualizações chegando. Um registro incompleto no fim do log (queda no meio da escrita)
+ * é descartado.
+ *
+ * Cada atualização (UPDATE ou lote) recebe uma versão, o seq do registro, crescente e sem lacunas;
+ * as mais recentes ficam num ChangeJournal, reconstruído da cauda do log na partida, para que
+ * assinantes que reconectam peçam só o que perderam. A época identifica o histórico: com diretório
+ * de dados ela é gravada no arquivo "epoch" e sobrevive a reinícios; só em memória muda a cada
+ * execução, e versões de outra época não valem.
+ *
+ * Registro do log: tamanho (int) | crc32 (int) | seq (long) | nome | ip [| nome | ip ...], com o crc
+ * e o tamanho cobrindo de seq em diante. Um lote (putAll) é um único registro: depois de uma queda
+ * ele é reaplicado inteiro ou descartado inteiro. Snapshot: magic | versão | seq | registros | quantidade | crc32.
+ * Strings como tamanho (short) + UTF-8, por isso nomes e IPs com mais de MAX_STRING_BYTES bytes são
+ * recusados antes de entrar no log.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.dns.dataDir=DIR         diretório de dados; sem ele os registros ficam só em memória
+ *   seguranca.dns.snapshotEvery=N     registros no log entre snapshots (padrão 100000)
+ *   seguranca.dns.table=map|compact|offheap  tabela em memória (ver RecordTable)
+ *   seguranca.dns.journal=N           nomes mantidos no histórico de alterações (padrão 100000)
+ *   seguranca.dns.nameIndex=false     desliga o índice de nomes (NameIndex) usado nas consultas por
+ *                                     prefixo, economizando a memória dele
+ */
+public class DnsStore implements Closeable {
+
+    public static final String DATA_DIR_PROPERTY = "seguranca.dns.dataDir";
+    // maior nome ou IP gravável: o tamanho vai no log e no snapshot como short sem sinal
+    public static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private static final Log LOG = Log.get("Store");
+    private static final int SNAPSHOT_EVERY = Integer.getInteger("seguranca.dns.snapshotEvery", 100_000);
+    private static final int SNAPSHOT_MAGIC = 0x4D444E53; // "MDNS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER = 4 + 4 + 8;
+    private static final int SNAPSHOT_TRAILER = 4 + 4;
+    private static final int RECORD_HEADER = 4 + 4;
+    private static final String WAL_PREFIX = "wal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final int JOURNAL_NAMES = Integer.getInteger("seguranca.dns.journal", 100_000);
+    private static final String EPOCH_FILE = "epoch";
+    private static final boolean NAME_INDEX = !"false".equalsIgnoreCase(System.getProperty("seguranca.dns.nameIndex"));
+
+    private RecordTable records; // só substituída durante a carga, antes de open() retornar
+    private final Path dir;      // null: só memória
+    private final NameIndex names = NAME_INDEX ? new NameIndex() : null;
+    private final ChangeJournal journal = new ChangeJournal(JOURNAL_NAMES);
+    private long epoch;
+
+    private final Object lock = new Object();
+    private List<PendingWrite> batch = new ArrayList<>(); // guardado por lock
+    private long lastSeq;                                 // guardado por lock
+    private boolean closed;                               // guardado por lock
+    private IOException failure;                          // guardado por lock
+
+    // thread de escrita
+    private Thread writer;
+    private FileChannel wal;
+    private long recordsSinceSnapshot;
+    private volatile boolean snapshotRunning;
+
+    private DnsStore(RecordTable records, Path dir) {
+        this.records = records;
+        this.dir = dir;
+    }
+
+    public static DnsStore inMemory() {
+        DnsStore store = new DnsStore(RecordTable.fromProperties(), null);
+        store.epoch = newEpoch();
+        return store;
+    }
+
+    // usa o diretório da propriedade seguranca.dns.dataDir, se houver
+    public static DnsStore fromProperties() throws IOException {
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+        return (dataDir == null) ? inMemory() : open(Path.of(dataDir));
+    }
+
+    /**
+     * Carrega o snapshot mais recente e a cauda do log do diretório (criado se não existir)
+     * e passa a gravar as atualizações nele.
+     */
+    public static DnsStore open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long start = System.nanoTime();
+        DnsStore store = new DnsStore(RecordTable.fromProperties(), dir);
+        store.epoch = loadEpoch(dir);
+        long snapshotSeq = store.loadLatestSnapshot();
+        store.journal.startAfter(snapshotSeq);
+        int snapshotRecords = store.records.size();
+        long replayed = store.replayLog(snapshotSeq);
+        LOG.info("Carregados " + store.records.size() + " nomes em " + (System.nanoTime() - start) / 1_000_000
+                + " ms (snapshot: " + snapshotRecords + " registros, log: " + replayed + " registros).");
+        if (store.names != null) store.records.forEach((name, ip) -> store.names.add(name));
+
+        store.writer = new Thread(store::writeLoop, "dns-store-writer");
+        store.writer.setDaemon(true);
+        store.writer.start();
+        return store;
+    }
+
+    private static long newEpoch() {
+        return new SecureRandom().nextLong() & Long.MAX_VALUE;
+    }
+
+    private static long loadEpoch(Path dir) throws IOException {
+        Path file = dir.resolve(EPOCH_FILE);
+        if (Files.exists(file)) {
+            try {
+                return Long.parseLong(Files.readString(file).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Arquivo de época inválido: " + file, e);
+            }
+        }
+        long epoch = newEpoch();
+        Path temporary = dir.resolve(EPOCH_FILE + ".tmp");
+        Files.writeString(temporary, Long.toString(epoch));
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        return epoch;
+    }
+
+    public String get(String name) {
+        return records.get(name);
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    // versão da última atualização aplicada
+    public long version() {
+        synchronized (lock) {
+            return lastSeq;
+        }
+    }
+
+    /**
+     * Acrescenta a out o último valor de cada nome alterado depois da versão after, até upTo e até
+     * cerca de maxNames nomes. Retorna a versão até onde out está completo, ou -1 se after já saiu
+     * do histórico (o cliente precisa de um snapshot).
+     */
+    public long changesSince(long after, long upTo, int maxNames, Map<String, String> out) {
+        return journal.collect(after, upTo, maxNames, out);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    // percorre os registros sem bloquear as atualizações; cada par lido é consistente
+    public void forEach(BiConsumer<String, String> action) {
+        records.forEach(action);
+    }
+
+    public boolean hasNameIndex() {
+        return names != null;
+    }
+
+    /**
+     * Acrescenta a out, em ordem, até limit nomes com o prefixo e posteriores a after (null: desde o
+     * início); devolve true se houver mais. Exige o índice de nomes (hasNameIndex).
+     */
+    public boolean names(String prefix, String after, int limit, List<String> out) {
+        if (names == null) throw new IllegalStateException("Índice de nomes desligado.");
+        return names.collect(prefix, after, limit, out);
+    }
+
+    // valor inicial, só em memória; não substitui o que já foi carregado do disco
+    public void seed(String name, String ip) {
+        records.putIfAbsent(name, ip);
+        if (names != null) names.add(name);
+    }
+
+    /**
+     * Atualiza o nome e, com diretório de dados, só retorna depois que o registro estiver no disco.
+     * O novo valor fica visível para leituras já antes do fsync.
+     */
+    public long put(String name, String ip) throws IOException {
+        return putAll(Map.of(name, ip));
+    }
+
+    // nome ou IP que cabe no formato do log e do snapshot
+    public static boolean isStorable(String text) {
+        return text.length() * 3 <= MAX_STRING_BYTES
+                || text.getBytes(StandardCharsets.UTF_8).length <= MAX_STRING_BYTES;
+    }
+
+    /**
+     * Atualiza todos os nomes com um único registro no log: no disco o lote é tudo ou nada.
+     * Leituras concorrentes podem ver parte do lote enquanto ele é aplicado. Retorna a versão do lote;
+     * updates passa a fazer parte do histórico e não pode mais ser alterado. Lança
+     * IllegalArgumentException, sem aplicar nada, se um nome ou IP não couber (isStorable).
+     */
+    public long putAll(Map<String, String> updates) throws IOException {
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            if (!isStorable(update.getKey()) || !isStorable(update.getValue())) {
+                throw new IllegalArgumentException("Nome ou IP com mais de " + MAX_STRING_BYTES + " bytes.");
+            }
+        }
+        PendingWrite write;
+        long version;
+        synchronized (lock) {
+            if (failure != null) throw new IOException("Log indisponível: " + failure.getMessage(), failure);
+            if (closed) throw new IOException("Armazenamento encerrado.");
+            // seq e mapa atualizados juntos: a ordem do log é a ordem em que os valores foram aplicados
+            version = ++lastSeq;
+            apply(updates);
+            journal.append(version, updates);
+            if (dir == null) return version;
+            write = new PendingWrite(encodeRecord(version, updates));
+            batch.add(write);
+            lock.notify();
+        }
+        try {
+            write.durable.join();
+        } catch (CompletionException e) {
+            throw new IOException("Falha ao gravar atualização: " + e.getCause().getMessage(), e.getCause());
+        }
+        return version;
+    }
+
+    private void apply(Map<String, String> updates) {
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            records.put(update.getKey(), update.getValue());
+            if (names != null) names.add(update.getKey());
+        }
+    }
+
+    private static final class PendingWrite {
+        final byte[] record;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        PendingWrite(byte[] record) {
+            this.record = record;
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<PendingWrite> writes;
+            long batchLastSeq;
+            synchronized (lock) {
+                while (batch.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (batch.isEmpty()) return;
+                writes = batch;
+                batch = new ArrayList<>();
+                batchLastSeq = lastSeq;
+            }
+            try {
+                int total = 0;
+                for (PendingWrite write : writes) total += write.record.length;
+                ByteBuffer buffer = ByteBuffer.allocate(total);
+                for (PendingWrite write : writes) buffer.put(write.record);
+                buffer.flip();
+                while (buffer.hasRemaining()) wal.write(buffer);
+                wal.force(false);
+                for (PendingWrite write : writes) write.durable.complete(null);
+
+                recordsSinceSnapshot += writes.size();
+                if (recordsSinceSnapshot >= SNAPSHOT_EVERY && !snapshotRunning) {
+                    startSnapshot(batchLastSeq);
+                }
+            } catch (IOException e) {
+                LOG.error("Falha ao gravar o log: " + e.getMessage());
+                synchronized (lock) {
+                    failure = e;
+                    for (PendingWrite pending : batch) pending.durable.completeExceptionally(e);
+                    batch.clear();
+                }
+                for (PendingWrite write : writes) write.durable.completeExceptionally(e);
+                return;
+            }
+        }
+    }
+
+    // thread de escrita: rotaciona o log e grava o snapshot em segundo plano
+    private void startSnapshot(long seq) throws IOException {
+        wal.close();
+        wal = openWal(seq + 1);
+        recordsSinceSnapshot = 0;
+        snapshotRunning = true;
+        Thread snapshotter = new Thread(() -> {
+            try {
+                writeSnapshot(seq);
+            } catch (IOException e) {
+                LOG.error("Falha ao gravar snapshot: " + e.getMessage());
+            } finally {
+                snapshotRunning = false;
+            }
+        }, "dns-store-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    private void writeSnapshot(long seq) throws IOException {
+        long start = System.nanoTime();
+        Path target = dir.resolve(SNAPSHOT_PREFIX + seq + ".dat");
+        Path temporary = dir.resolve(SNAPSHOT_PREFIX + seq + ".tmp");
+        int count;
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotWriter writer = new SnapshotWriter(out, seq);
+            try {
+                records.forEach(writer::write);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            count = writer.finish();
+            out.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // o snapshot cobre tudo até seq: logs que começam até ele e snapshots anteriores já não servem
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long fileSeq = sequenceOf(file, WAL_PREFIX, ".log");
+                long oldSnapshot = sequenceOf(file, SNAPSHOT_PREFIX, ".dat");
+                if ((fileSeq >= 0 && fileSeq <= seq) || (oldSnapshot >= 0 && oldSnapshot < seq)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        LOG.info("Snapshot de " + count + " nomes até o registro " + seq + " em "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
+
+    // registros do snapshot em blocos, com o crc calculado no caminho
+    private static final class SnapshotWriter {
+        private final FileChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        private final CRC32 crc = new CRC32();
+        private int recordsStart;
+        private int count;
+
+        SnapshotWriter(FileChannel out, long seq) {
+            this.out = out;
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(seq);
+            recordsStart = buffer.position();
+        }
+
+        void write(String name, String ip) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            byte[] ipBytes = ip.getBytes(StandardCharsets.UTF_8);
+            try {
+                if (buffer.remaining() < 4 + nameBytes.length + ipBytes.length + SNAPSHOT_TRAILER) flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.putShort((short) nameBytes.length).put(nameBytes).putShort((short) ipBytes.length).put(ipBytes);
+            count++;
+        }
+
+        int finish() throws IOException {
+            crc.update(buffer.array(), recordsStart, buffer.position() - recordsStart);
+            buffer.putInt(count).putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+            return count;
+        }
+
+        private void flush() throws IOException {
+            crc.update(buffer.array(), recordsStart, buffer.position() - recordsStart);
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+            buffer.clear();
+            recordsStart = 0;
+        }
+    }
+
+    // carrega o snapshot válido mais recente e retorna o seq que ele cobre (0 se não houver)
+    private long loadLatestSnapshot() throws IOException {
+        List<Long> snapshots = listSequences(SNAPSHOT_PREFIX, ".dat");
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            long seq = snapshots.get(i);
+            Path file = dir.resolve(SNAPSHOT_PREFIX + seq + ".dat");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                RecordTable table = RecordTable.fromProperties();
+                if (loadSnapshot(channel, table)) {
+                    records = table;
+                    return seq;
+                }
+            }
+            LOG.warn("Snapshot corrompido ignorado: " + file.getFileName());
+        }
+        return 0;
+    }
+
+    // os registros vão para a tabela enquanto o crc é calculado; se não bater, a tabela é descartada
+    private static boolean loadSnapshot(FileChannel channel, RecordTable table) throws IOException {
+        long size = channel.size();
+        if (size < SNAPSHOT_HEADER + SNAPSHOT_TRAILER) return false;
+        ByteBuffer fixed = ByteBuffer.allocate(SNAPSHOT_HEADER);
+        readFully(channel, fixed, 0);
+        if (fixed.getInt(0) != SNAPSHOT_MAGIC || fixed.getInt(4) != SNAPSHOT_VERSION) return false;
+        long recordsEnd = size - SNAPSHOT_TRAILER;
+        fixed.clear().limit(SNAPSHOT_TRAILER);
+        readFully(channel, fixed, recordsEnd);
+        int count = fixed.getInt(0);
+        int expectedCrc = fixed.getInt(4);
+
+        ChannelReader reader = new ChannelReader(channel, SNAPSHOT_HEADER, recordsEnd);
+        CRC32 crc = new CRC32();
+        byte[] scratch = new byte[0xFFFF];
+        for (int i = 0; i < count; i++) {
+            String name = readString(reader, crc, scratch);
+            String ip = (name != null) ? readString(reader, crc, scratch) : null;
+            if (ip == null) return false;
+            table.put(name, ip);
+        }
+        return reader.atEnd() && (int) crc.getValue() == expectedCrc;
+    }
+
+    // próximo texto do snapshot, somado ao crc; null se o trecho acaba antes
+    private static String readString(ChannelReader reader, CRC32 crc, byte[] scratch) throws IOException {
+        if (!reader.require(2)) return null;
+        int length = 2 + (reader.buffer().getShort(reader.buffer().position()) & 0xFFFF);
+        if (!reader.require(length)) return null;
+        ByteBuffer buffer = reader.buffer();
+        crc.update(buffer.slice(buffer.position(), length));
+        return readString(buffer, scratch);
+    }
+
+    /**
+     * Reaplica os registros do log posteriores ao snapshot, abre o log para escrita e
+     * retorna quantos registros foram reaplicados.
+     */
+    private long replayLog(long snapshotSeq) throws IOException {
+        lastSeq = snapshotSeq;
+        long replayed = 0;
+        List<Long> logs = listSequences(WAL_PREFIX, ".log");
+        byte[] scratch = new byte[0xFFFF];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < logs.size(); i++) {
+            Path file = dir.resolve(WAL_PREFIX + logs.get(i) + ".log");
+            boolean last = (i == logs.size() - 1);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                ChannelReader reader = new ChannelReader(channel, 0, size);
+                long valid = 0;
+                while (reader.require(RECORD_HEADER)) {
+                    ByteBuffer buffer = reader.buffer();
+                    int length = buffer.getInt(buffer.position());
+                    int expectedCrc = buffer.getInt(buffer.position() + 4);
+                    if (length < 8 + 4 || length > size - valid - RECORD_HEADER) break;
+                    if (!reader.require(RECORD_HEADER + length)) break;
+                    buffer = reader.buffer();
+                    crc.reset();
+                    crc.update(buffer.slice(buffer.position() + RECORD_HEADER, length));
+                    if ((int) crc.getValue() != expectedCrc) break;
+
+                    buffer.position(buffer.position() + RECORD_HEADER);
+                    long seq = buffer.getLong();
+                    int end = buffer.position() - 8 + length;
+                    Map<String, String> updates = new LinkedHashMap<>();
+                    while (buffer.position() < end) {
+                        String name = readString(buffer, scratch);
+                        String ip = readString(buffer, scratch);
+                        updates.put(name, ip);
+                    }
+                    if (seq > snapshotSeq) {
+                        for (Map.Entry<String, String> update : updates.entrySet()) records.put(update.getKey(), update.getValue());
+                        journal.append(seq, updates);
+                        replayed++;
+                    }
+                    lastSeq = Math.max(lastSeq, seq);
+                    valid += RECORD_HEADER + length;
+                }
+                if (valid < size) {
+                    LOG.warn("Registro incompleto ou corrompido em " + file.getFileName() + " na posição " + valid
+                            + (last ? "; o restante do log foi descartado." : "."));
+                    if (last) channel.truncate(valid);
+                }
+            }
+        }
+        // continua no último log ou começa um novo
+        wal = logs.isEmpty() ? openWal(lastSeq + 1) : openWal(logs.get(logs.size() - 1));
+        return replayed;
+    }
+
+    /**
+     * Leitura sequencial de [start, end) de um arquivo em blocos, com leituras posicionais num
+     * buffer de heap reaproveitado (cresce só para um registro maior que ele).
+     */
+    private static final class ChannelReader {
+        private final FileChannel channel;
+        private final long end;
+        private long next; // posição no arquivo do primeiro byte ainda não lido para o buffer
+        private ByteBuffer buffer = ByteBuffer.allocate(256 * 1024).limit(0);
+
+        ChannelReader(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.next = start;
+            this.end = end;
+        }
+
+        // o buffer, posicionado no próximo byte a consumir
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        boolean atEnd() {
+            return !buffer.hasRemaining() && next == end;
+        }
+
+        // garante ao menos n bytes no buffer a partir da posição atual; false se o trecho acaba antes
+        boolean require(int n) throws IOException {
+            if (buffer.remaining() >= n) return true;
+            if (buffer.remaining() + (end - next) < n) return false;
+            if (buffer.capacity() < n) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(n, buffer.capacity() * 2));
+                grown.put(buffer);
+                buffer = grown;
+            } else {
+                buffer.compact();
+            }
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + (end - next)));
+            while (buffer.position() < n) {
+                int read = channel.read(buffer, next);
+                if (read < 0) throw new EOFException("Arquivo encurtado durante a leitura.");
+                next += read;
+            }
+            buffer.flip();
+            return true;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Arquivo encurtado durante a leitura.");
+            position += read;
+        }
+    }
+
+    private FileChannel openWal(long firstSeq) throws IOException {
+        FileChannel channel = FileChannel.open(dir.resolve(WAL_PREFIX + firstSeq + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private List<Long> listSequences(String prefix, String suffix) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long seq = sequenceOf(file, prefix, suffix);
+                if (seq >= 0) sequences.add(seq);
+            }
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    // seq no nome "<prefix><seq><suffix>", ou -1 se o arquivo não for desse tipo
+    private static long sequenceOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encodeRecord(long seq, Map<String, String> updates) {
+        List<byte[]> strings = new ArrayList<>(updates.size() * 2);
+        int length = 8;
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            byte[] nameBytes = update.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] ipBytes = update.getValue().getBytes(StandardCharsets.UTF_8);
+            strings.add(nameBytes);
+            strings.add(ipBytes);
+            length += 2 + nameBytes.length + 2 + ipBytes.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+        record.putInt(length).putInt(0).putLong(seq);
+        for (byte[] string : strings) record.putShort((short) string.length).put(string);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getShort() & 0xFFFF;
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Para de aceitar atualizações e espera a gravação das pendentes.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notify();
+        }
+        if (writer == null) return;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        wal.close();
+    }
+}
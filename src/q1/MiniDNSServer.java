@@ -1,66 +1,142 @@
 package q1;
 
-import java.io.PrintWriter;
+import common.ConnectionExecutor;
+import common.Log;
+import common.OffenderTable;
+import common.RateLimiter;
+import common.SecureChannelContext;
+import common.NioServer;
+import common.ServerMetrics;
+
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class MiniDNSServer {
 
-    private static final int PORT = 12345;
-    private final Map<String, String> dnsMap = new ConcurrentHashMap<>();
-    private final List<PrintWriter> subscribers =
-            java.util.Collections.synchronizedList(new ArrayList<>());
+    private static final Log LOG = Log.get("Servidor");
+    private static final int PORT = Integer.getInteger("seguranca.dns.port", 12345);
+    // replicação: no primário, a porta onde as réplicas se conectam; numa réplica, a mesma porta do primário
+    private static final int REPLICATION_PORT = Integer.getInteger("seguranca.dns.replicationPort", 0);
+    // "host:porta" do primário; definido, este servidor é uma réplica
+    private static final String PRIMARY = System.getProperty("seguranca.dns.primary");
+    // modo de atendimento: "threads" (uma thread por conexão, padrão) ou "nio"
+    public static final String IO_PROPERTY = "seguranca.io";
+    // registros, persistidos em disco com -Dseguranca.dns.dataDir
+    private final DnsStore store;
 
     // chave secreta
     public static final byte[] SHARED_SECRET_KEY =
             "chave-secreta-super-segura".getBytes(StandardCharsets.UTF_8);
 
-    public MiniDNSServer() {
+    // contexto criptográfico montado uma única vez para a chave
+    private final SecureChannelContext secureContext = new SecureChannelContext(SHARED_SECRET_KEY);
+
+    // latências por estágio e contadores, exportados via JMX
+    private final ServerMetrics metrics = ServerMetrics.register("MiniDNS");
+
+    // falhas de autenticação por endereço de origem
+    private final OffenderTable offenders = new OffenderTable();
+
+    // admissão de mensagens por conexão e por endereço (seguranca.limit.*)
+    private final RateLimiter limiter = new RateLimiter(secureContext);
+
+    // threads que atendem as conexões do modo "threads" (seguranca.exec.*)
+    private final ConnectionExecutor connections = new ConnectionExecutor("dns-conn", metrics);
+
+    private final DnsCommandProcessor processor;
+    private ReplicationPrimary replicationPrimary;
+    private ReplicationReplica replica;
+
+    public MiniDNSServer() throws IOException {
+        store = DnsStore.fromProperties();
         initializeDnsMap();
+        processor = new DnsCommandProcessor(store, secureContext, metrics);
+        metrics.setSubscriberGauge(processor::getSubscriberCount);
+        metrics.setLimitedAddressGauge(limiter::getLimitedAddressCount);
+        if (PRIMARY != null) {
+            if (REPLICATION_PORT <= 0) throw new IOException("Réplica sem -Dseguranca.dns.replicationPort do primário.");
+            int colon = PRIMARY.lastIndexOf(':');
+            replica = new ReplicationReplica(PRIMARY.substring(0, colon), Integer.parseInt(PRIMARY.substring(colon + 1)),
+                    REPLICATION_PORT, secureContext, processor);
+            processor.attachReplica(replica);
+            metrics.setReplicationLagGauge(replica::getLagMillis);
+        } else if (REPLICATION_PORT > 0) {
+            replicationPrimary = new ReplicationPrimary(REPLICATION_PORT, store, secureContext, offenders);
+            processor.attachReplicationPrimary(replicationPrimary);
+        }
     }
 
     private void initializeDnsMap() {
-        // popula o mapa inicial
-        dnsMap.put("servidor1", "192.168.0.10");
-        dnsMap.put("servidor2", "192.168.0.20");
-        dnsMap.put("servidor3", "192.168.0.30");
-        dnsMap.put("servidor4", "192.168.0.40");
-        dnsMap.put("servidor5", "192.168.0.50");
-        dnsMap.put("servidor6", "192.168.0.60");
-        dnsMap.put("servidor7", "192.168.0.70");
-        dnsMap.put("servidor8", "192.168.0.80");
-        dnsMap.put("servidor9", "192.168.0.90");
-        dnsMap.put("servidor10", "192.168.0.100");
+        // popula o mapa inicial; valores já gravados em disco prevalecem
+        store.seed("servidor1", "192.168.0.10");
+        store.seed("servidor2", "192.168.0.20");
+        store.seed("servidor3", "192.168.0.30");
+        store.seed("servidor4", "192.168.0.40");
+        store.seed("servidor5", "192.168.0.50");
+        store.seed("servidor6", "192.168.0.60");
+        store.seed("servidor7", "192.168.0.70");
+        store.seed("servidor8", "192.168.0.80");
+        store.seed("servidor9", "192.168.0.90");
+        store.seed("servidor10", "192.168.0.100");
     }
 
     public void start() {
+        try {
+            if (replicationPrimary != null) replicationPrimary.start();
+            if (replica != null) replica.start();
+        } catch (IOException e) {
+            System.err.println("[Servidor] Erro ao iniciar a replicação: " + e.getMessage());
+            return;
+        }
+        if ("nio".equalsIgnoreCase(System.getProperty(IO_PROPERTY))) {
+            startNonBlocking();
+            return;
+        }
         System.out.println("[Servidor] Mini-DNS (Seguro) iniciado na porta " + PORT);
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("[Servidor] Novo cliente conectado: " + clientSocket.getInetAddress());
+                if (offenders.isBlocked(clientSocket.getInetAddress())) {
+                    // endereço com falhas de autenticação demais: recusa antes de ler qualquer byte
+                    metrics.connectionRejected();
+                    clientSocket.close();
+                    continue;
+                }
+                LOG.info("Novo cliente conectado: " + clientSocket.getInetAddress());
 
-                // cria uma nova thread para lidar com o cliente
+                // atende o cliente numa thread do executor de conexões
                 ClientHandler handler = new ClientHandler(
                         clientSocket,
-                        dnsMap,
-                        subscribers,
-                        SHARED_SECRET_KEY
+                        processor,
+                        secureContext,
+                        metrics,
+                        offenders,
+                        limiter
                 );
-                Thread clientThread = new Thread(handler);
-                clientThread.start();
+                connections.execute(clientSocket, handler);
             }
         } catch (Exception e) {
             System.err.println("[Servidor] Erro ao iniciar: " + e.getMessage());
         }
     }
 
+    // poucas threads de I/O e um pool limitado de workers, para muitos assinantes ociosos
+    private void startNonBlocking() {
+        System.out.println("[Servidor] Mini-DNS (Seguro, NIO) iniciado na porta " + PORT);
+        try {
+            new NioServer(PORT, secureContext, processor, metrics, offenders, limiter, LOG).start();
+        } catch (Exception e) {
+            System.err.println("[Servidor] Erro ao iniciar: " + e.getMessage());
+        }
+    }
+
     public static void main(String[] args) {
-        new MiniDNSServer().start();
+        try {
+            new MiniDNSServer().start();
+        } catch (IOException e) {
+            System.err.println("[Servidor] Erro ao carregar os registros: " + e.getMessage());
+        }
     }
 }
\ No newline at end of file
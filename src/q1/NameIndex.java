@@ -0,0 +1,170 @@
+package q1;
+
+import java.util.List;
+
+/**
+ * Índice dos nomes em ordem lexicográfica, numa árvore radix, para consultas por prefixo.
+ *
+ * Uma única escrita por vez (add é sincronizado) e leituras sem bloqueio: cada nó tem o rótulo
+ * fixo e os filhos num vetor trocado inteiro a cada mudança (cópia na escrita). Ao dividir uma
+ * aresta o nó antigo é substituído por cópias, então quem está lendo continua vendo uma árvore
+ * consistente. Nomes não são removidos: os registros também não são.
+ */
+final class NameIndex {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final class Node {
+        final String label;
+        volatile Node[] children; // ordenados pelo primeiro caractere do rótulo
+        volatile boolean terminal;
+
+        Node(String label, Node[] children, boolean terminal) {
+            this.label = label;
+            this.children = children;
+            this.terminal = terminal;
+        }
+    }
+
+    private final Node root = new Node("", NO_CHILDREN, false);
+    private int size; // guardado por this
+
+    synchronized void add(String name) {
+        Node node = root;
+        int position = 0;
+        while (true) {
+            if (position == name.length()) {
+                if (!node.terminal) {
+                    node.terminal = true;
+                    size++;
+                }
+                return;
+            }
+            Node[] children = node.children;
+            int index = find(children, name.charAt(position));
+            if (index < 0) {
+                node.children = insert(children, -index - 1, new Node(name.substring(position), NO_CHILDREN, true));
+                size++;
+                return;
+            }
+            Node child = children[index];
+            int common = commonLength(child.label, name, position);
+            if (common == child.label.length()) {
+                node = child;
+                position += common;
+                continue;
+            }
+            // divide a aresta: o prefixo comum vira um nó com o restante do filho antigo abaixo
+            Node rest = new Node(child.label.substring(common), child.children, child.terminal);
+            Node split;
+            if (position + common == name.length()) {
+                split = new Node(child.label.substring(0, common), new Node[]{rest}, true);
+            } else {
+                Node added = new Node(name.substring(position + common), NO_CHILDREN, true);
+                split = new Node(child.label.substring(0, common),
+                        (rest.label.charAt(0) < added.label.charAt(0)) ? new Node[]{rest, added} : new Node[]{added, rest},
+                        false);
+            }
+            Node[] replaced = children.clone();
+            replaced[index] = split;
+            node.children = replaced;
+            size++;
+            return;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Acrescenta a out, em ordem, até limit nomes que começam com prefix e vêm depois de after
+     * (null: desde o início). Devolve true se ainda houver nomes além dos entregues.
+     */
+    boolean collect(String prefix, String after, int limit, List<String> out) {
+        Node node = root;
+        int position = 0;
+        StringBuilder path = new StringBuilder(prefix.length() + 32);
+        while (position < prefix.length()) {
+            Node[] children = node.children;
+            int index = find(children, prefix.charAt(position));
+            if (index < 0) return false;
+            Node child = children[index];
+            int common = commonLength(child.label, prefix, position);
+            if (common < child.label.length() && position + common < prefix.length()) return false;
+            path.append(child.label);
+            position += child.label.length();
+            node = child;
+        }
+        return walk(node, path, after, limit, out);
+    }
+
+    // percurso em ordem; devolve true ao encontrar um nome além do limite
+    private static boolean walk(Node node, StringBuilder path, String after, int limit, List<String> out) {
+        if (node.terminal && (after == null || after.compareTo(path.toString()) < 0)) {
+            if (out.size() == limit) return true;
+            out.add(path.toString());
+        }
+        int length = path.length();
+        for (Node child : node.children) {
+            path.append(child.label);
+            // subárvore inteira antes do cursor: todo nome nela começa com um caminho menor que after
+            boolean skip = after != null && compare(path, after) < 0 && !startsWith(after, path);
+            if (!skip && walk(child, path, after, limit, out)) {
+                path.setLength(length);
+                return true;
+            }
+            path.setLength(length);
+        }
+        return false;
+    }
+
+    private static int find(Node[] children, char first) {
+        int low = 0;
+        int high = children.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char c = children[middle].label.charAt(0);
+            if (c < first) {
+                low = middle + 1;
+            } else if (c > first) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static Node[] insert(Node[] children, int at, Node node) {
+        Node[] grown = new Node[children.length + 1];
+        System.arraycopy(children, 0, grown, 0, at);
+        grown[at] = node;
+        System.arraycopy(children, at, grown, at + 1, children.length - at);
+        return grown;
+    }
+
+    private static int commonLength(String label, String name, int offset) {
+        int max = Math.min(label.length(), name.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == name.charAt(offset + i)) i++;
+        return i;
+    }
+
+    private static int compare(CharSequence a, String b) {
+        int max = Math.min(a.length(), b.length());
+        for (int i = 0; i < max; i++) {
+            int diff = a.charAt(i) - b.charAt(i);
+            if (diff != 0) return diff;
+        }
+        return a.length() - b.length();
+    }
+
+    private static boolean startsWith(String s, CharSequence prefix) {
+        if (prefix.length() > s.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
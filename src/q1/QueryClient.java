@@ -1,13 +1,12 @@
 package q1;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.SecureChannelContext;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 
 public class QueryClient {
 
@@ -21,92 +20,73 @@ public class QueryClient {
     private static final byte[] SHARED_SECRET_KEY =
         "chave-errada".getBytes(StandardCharsets.UTF_8);
 
+    private static final SecureChannelContext SECURE_CONTEXT = new SecureChannelContext(SHARED_SECRET_KEY);
+
+    // nomes no cache local; sem ttl, o cache é mantido em dia pelas notificações
+    private static final int CACHE_ENTRIES = 10_000;
+
     public static void main(String[] args) {
         try (
-                Socket socket = new Socket(HOST, PORT);
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                CachingResolver resolver = new CachingResolver(HOST, PORT, SECURE_CONTEXT, CACHE_ENTRIES, 0);
                 BufferedReader consoleIn = new BufferedReader(new InputStreamReader(System.in))
         ) {
+            resolver.setUpdateListener(QueryClient::printMessage);
+            resolver.connect();
             System.out.println("[Cliente Requisitante] Conectado ao servidor.");
-            Thread listenerThread = new Thread(new ServerListener(in, SHARED_SECRET_KEY));
-            listenerThread.start();
-
-            sendSecureMessage(out, "REGISTER_QUERY", SHARED_SECRET_KEY);
 
-            System.out.println("Comandos disponíveis: RESOLVE <nome> | SAIR");
+            System.out.println("Comandos disponíveis: RESOLVE <nome> | RESOLVE_MANY <nome1> <nome2> ... | "
+                    + "RESOLVE_PREFIX <prefixo> [cursor] | LIST <padrão> [cursor] | SAIR");
             System.out.print("> ");
             String userInput;
             while ((userInput = consoleIn.readLine()) != null) {
                 if ("SAIR".equalsIgnoreCase(userInput)) break;
-                sendSecureMessage(out, userInput, SHARED_SECRET_KEY);
+                try {
+                    execute(resolver, userInput);
+                } catch (Exception e) {
+                    System.err.println("[Servidor Resposta] Erro: " + e.getMessage());
+                }
                 System.out.print("> ");
             }
-            listenerThread.interrupt();
-            System.out.println("[Cliente Requisitante] Desconectado.");
+            System.out.printf("[Cliente Requisitante] Desconectado (cache: %d acertos, %d consultas ao servidor).%n",
+                    resolver.getHitCount(), resolver.getMissCount());
         } catch (Exception e) {
             System.err.println("[Cliente Requisitante] Erro: " + e.getMessage());
         }
     }
 
-    public static void sendSecureMessage(PrintWriter out, String plainMessage, byte[] key) throws Exception {
-        byte[] data = plainMessage.getBytes(StandardCharsets.UTF_8);
-        byte[] encryptedData = SecurityUtils.encrypt(key, data);
-        byte[] hmac = SecurityUtils.calculateHmac(key, encryptedData);
-        out.println(ConverterUtils.bytes2Hex(hmac) + "::" + ConverterUtils.bytes2Hex(encryptedData));
-    }
-}
-
-class ServerListener implements Runnable {
-    private final BufferedReader in;
-    private final byte[] sharedKey;
-
-    public ServerListener(BufferedReader in, byte[] key) {
-        this.in = in;
-        this.sharedKey = key;
+    // RESOLVE e RESOLVE_MANY passam pelo cache; o resto vai direto ao servidor
+    private static void execute(CachingResolver resolver, String userInput) throws Exception {
+        String[] parts = userInput.trim().split(" ");
+        String operation = parts[0].toUpperCase();
+        if (operation.equals("RESOLVE") && parts.length == 2) {
+            String ip = resolver.resolve(parts[1]);
+            printMessage((ip != null) ? "OK;" + parts[1] + " -> " + ip : "ERROR;Nome não encontrado: " + parts[1]);
+        } else if (operation.equals("RESOLVE_MANY") && parts.length > 1) {
+            Map<String, String> resolved = resolver.resolveAll(Arrays.asList(parts).subList(1, parts.length));
+            StringBuilder response = new StringBuilder("OK");
+            for (int i = 1; i < parts.length; i++) {
+                if (resolved.containsKey(parts[i])) response.append(';').append(parts[i]).append(" -> ").append(resolved.get(parts[i]));
+            }
+            printMessage(response.toString());
+        } else {
+            printMessage(resolver.request(userInput).get());
+        }
     }
 
-    @Override
-    public void run() {
-        try {
-            String receivedLine;
-            while (Thread.currentThread().isInterrupted() == false && (receivedLine = in.readLine()) != null) {
-                try {
-                    String[] parts = receivedLine.split("::");
-                    if (parts.length != 2) {
-                        System.err.println("\n[Servidor Resposta] ERRO: Formato inválido.");
-                        continue;
-                    }
-                    byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-                    byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-
-                    boolean isHmacValid = SecurityUtils.checkHmac(sharedKey, encryptedData, receivedHmac);
-                    if (!isHmacValid) {
-                        System.err.println("\n[Servidor Resposta] FALHA DE SEGURANÇA: HMAC inválido. Mensagem descartada.");
-                        continue;
-                    }
-
-                    byte[] decryptedData = SecurityUtils.decrypt(sharedKey, encryptedData);
-                    String message = new String(decryptedData, StandardCharsets.UTF_8);
-
-                    // imprime a resposta
-                    System.out.println(""); // nova linha para a resposta
-                    if (message.startsWith("OK;")) {
-                        System.out.println("[Servidor Resposta] " + message.substring(3));
-                    } else if (message.startsWith("UPDATED;")) {
-                        // formato: UPDATED;servidor1;192.168.0.111
-                        String[] updateParts = message.split(";");
-                        System.out.println("[PUSH_NOTIFICATION] Binding dinâmico: " + updateParts[1] + " agora é " + updateParts[2]);
-                    } else {
-                        System.out.println("[Servidor Resposta] " + message);
-                    }
-                    System.out.print("> ");
-
-                } catch (Exception e) {
-                    System.err.println("\n[Servidor Resposta] Erro ao processar mensagem: " + e.getMessage());
-                }
+    private static void printMessage(String message) {
+        // imprime a resposta
+        System.out.println(""); // nova linha para a resposta
+        if (message.startsWith("OK;")) {
+            System.out.println("[Servidor Resposta] " + message.substring(3));
+        } else if (message.startsWith("UPDATED;")) {
+            // formato: UPDATED;servidor1;192.168.0.111[;servidor4;192.168.0.444...];versão
+            String[] updateParts = message.split(";");
+            for (int i = 1; i + 1 < updateParts.length; i += 2) {
+                System.out.println("[PUSH_NOTIFICATION] Binding dinâmico: " + updateParts[i] + " agora é " + updateParts[i + 1]);
             }
-        } catch (Exception e) {
+            System.out.print("> ");
+        } else {
+            System.out.println("[Servidor Resposta] " + message);
         }
     }
-}
\ No newline at end of file
+}
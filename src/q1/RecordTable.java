@@ -0,0 +1,68 @@
+package q1;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Tabela nome -> endereço por trás do DnsStore. Leituras não bloqueiam; cada escrita é atômica.
+ *
+ * -Dseguranca.dns.table=map (padrão) usa um ConcurrentHashMap de Strings; compact e offheap usam a
+ * CompactRecordTable, com os nomes no heap ou fora dele.
+ */
+interface RecordTable {
+
+    String TABLE_PROPERTY = "seguranca.dns.table";
+
+    String get(String name);
+
+    void put(String name, String value);
+
+    // não substitui um valor existente
+    void putIfAbsent(String name, String value);
+
+    int size();
+
+    // percorre os registros sem bloquear as escritas; cada par lido é consistente
+    void forEach(BiConsumer<String, String> action);
+
+    static RecordTable fromProperties() {
+        String table = System.getProperty(TABLE_PROPERTY, "map");
+        switch (table.toLowerCase()) {
+            case "compact": return new CompactRecordTable(false);
+            case "offheap": return new CompactRecordTable(true);
+            case "map": return new MapRecordTable();
+            default: throw new IllegalArgumentException("Tabela desconhecida em " + TABLE_PROPERTY + ": " + table);
+        }
+    }
+
+    final class MapRecordTable implements RecordTable {
+
+        private final Map<String, String> records = new ConcurrentHashMap<>();
+
+        @Override
+        public String get(String name) {
+            return records.get(name);
+        }
+
+        @Override
+        public void put(String name, String value) {
+            records.put(name, value);
+        }
+
+        @Override
+        public void putIfAbsent(String name, String value) {
+            records.putIfAbsent(name, value);
+        }
+
+        @Override
+        public int size() {
+            return records.size();
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            records.forEach(action);
+        }
+    }
+}
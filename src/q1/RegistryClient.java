@@ -1,14 +1,38 @@
 package q1;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cliente registrador.
+ *
+ * Sem argumentos envia as três atualizações de demonstração. Com um arquivo (ou "-" para a
+ * entrada padrão) de linhas "nome ip" faz o registro em massa: as atualizações seguem pela mesma
+ * conexão sem esperar respostas (até seguranca.registry.inFlight pendentes, padrão 64, o mesmo
+ * limite por conexão do servidor NIO), as respostas são casadas de forma assíncrona e cada
+ * registro recusado é informado com sua linha. Uma atualização sem resposta falha pelo tempo
+ * limite do DnsResolver e libera sua vaga, então uma resposta perdida não trava o envio.
+ * Com um segundo argumento N as linhas vão em lotes UPDATE_BATCH de N registros, aplicados pelo
+ * servidor como tudo ou nada.
+ *
+ * Uso: java q1.RegistryClient [arquivo|- [registros por lote]]
+ */
 public class RegistryClient {
 
     private static final String HOST = "172.17.232.64";
@@ -21,28 +45,55 @@ public class RegistryClient {
      private static final byte[] SHARED_SECRET_KEY =
         "chave-do-atacante".getBytes(StandardCharsets.UTF_8);
 
+    private static final SecureChannelContext SECURE_CONTEXT = new SecureChannelContext(SHARED_SECRET_KEY);
+
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("seguranca.registry.inFlight", 64);
+    // caracteres por comando, para que o lote caiba num quadro
+    private static final int MAX_COMMAND_CHARS = 16 * 1024;
+
+    // registro lido do arquivo, com a linha para o relatório de falhas
+    private static final class Line {
+        final int number;
+        final String name;
+        final String ip;
+
+        Line(int number, String name, String ip) {
+            this.number = number;
+            this.name = name;
+            this.ip = ip;
+        }
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0) {
+            try {
+                int batchSize = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+                bulk(args[0], Math.max(1, Math.min(batchSize, DnsCommandProcessor.MAX_UPDATE_BATCH)));
+            } catch (Exception e) {
+                System.err.println("[Cliente Registrador] Erro: " + e.getMessage());
+            }
+            return;
+        }
         try (
                 Socket socket = new Socket(HOST, PORT);
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+                SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, SECURE_CONTEXT)
         ) {
             System.out.println("[Cliente Registrador] Conectado ao servidor.");
 
             // envia os 3 updates de uma vez
             System.out.println("Enviando atualização para servidor1...");
-            sendSecureMessage(out, "UPDATE servidor1 192.168.0.111", SHARED_SECRET_KEY);
-            processSecureResponse(in.readLine(), SHARED_SECRET_KEY);
+            pipeline.send("UPDATE servidor1 192.168.0.111");
+            processSecureResponse(pipeline);
             Thread.sleep(1000);
 
             System.out.println("Enviando atualização para servidor4...");
-            sendSecureMessage(out, "UPDATE servidor4 192.168.0.444", SHARED_SECRET_KEY);
-            processSecureResponse(in.readLine(), SHARED_SECRET_KEY);
+            pipeline.send("UPDATE servidor4 192.168.0.444");
+            processSecureResponse(pipeline);
             Thread.sleep(1000);
 
             System.out.println("Enviando atualização para servidor9...");
-            sendSecureMessage(out, "UPDATE servidor9 192.168.0.999", SHARED_SECRET_KEY);
-            processSecureResponse(in.readLine(), SHARED_SECRET_KEY);
+            pipeline.send("UPDATE servidor9 192.168.0.999");
+            processSecureResponse(pipeline);
 
             System.out.println("[Cliente Registrador] Atualizações concluídas. Desconectando.");
 
@@ -51,38 +102,99 @@ public class RegistryClient {
         }
     }
 
-    public static void sendSecureMessage(PrintWriter out, String plainMessage, byte[] key) throws Exception {
-        byte[] data = plainMessage.getBytes(StandardCharsets.UTF_8);
-        byte[] encryptedData = SecurityUtils.encrypt(key, data);
-        byte[] hmac = SecurityUtils.calculateHmac(key, encryptedData);
-        out.println(ConverterUtils.bytes2Hex(hmac) + "::" + ConverterUtils.bytes2Hex(encryptedData));
+    private static void bulk(String source, int batchSize) throws Exception {
+        BufferedReader in = "-".equals(source)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(source));
+        long start = System.nanoTime();
+        AtomicLong applied = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        try (in; DnsResolver resolver = new DnsResolver(new Socket(HOST, PORT), SECURE_CONTEXT)) {
+            System.out.println("[Cliente Registrador] Conectado ao servidor; registrando de " + source + "...");
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            List<Line> batch = new ArrayList<>(batchSize);
+            int chars = 0;
+            int number = 0;
+            String text;
+            while ((text = in.readLine()) != null) {
+                number++;
+                text = text.trim();
+                if (text.isEmpty() || text.startsWith("#")) continue;
+                String[] fields = text.split("\\s+");
+                if (fields.length != 2) {
+                    System.err.println("[Falha] linha " + number + ": esperado \"nome ip\"");
+                    failed.incrementAndGet();
+                    continue;
+                }
+                int length = fields[0].length() + fields[1].length() + 2;
+                if (!batch.isEmpty() && chars + length > MAX_COMMAND_CHARS) {
+                    send(resolver, batch, inFlight, applied, failed);
+                    batch = new ArrayList<>(batchSize);
+                    chars = 0;
+                }
+                batch.add(new Line(number, fields[0], fields[1]));
+                chars += length;
+                if (batch.size() == batchSize) {
+                    send(resolver, batch, inFlight, applied, failed);
+                    batch = new ArrayList<>(batchSize);
+                    chars = 0;
+                }
+            }
+            if (!batch.isEmpty()) send(resolver, batch, inFlight, applied, failed);
+            inFlight.acquire(MAX_IN_FLIGHT); // espera as últimas respostas
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("[Cliente Registrador] %d registros aplicados, %d recusados em %d ms (%d registros/s).%n",
+                applied.get(), failed.get(), millis, applied.get() * 1000 / millis);
+    }
+
+    // envia sem esperar; a resposta é tratada na thread leitora do resolvedor
+    private static void send(DnsResolver resolver, List<Line> batch, Semaphore inFlight,
+                             AtomicLong applied, AtomicLong failed) throws InterruptedException {
+        StringBuilder command = new StringBuilder((batch.size() == 1) ? "UPDATE" : "UPDATE_BATCH");
+        for (Line line : batch) command.append(' ').append(line.name).append(' ').append(line.ip);
+        inFlight.acquire();
+        resolver.request(command.toString()).whenComplete((response, error) -> {
+            try {
+                if (error == null && response.startsWith("OK")) {
+                    applied.addAndGet(batch.size());
+                    return;
+                }
+                failed.addAndGet(batch.size());
+                String reason = (error != null) ? describe(error) : response;
+                // "ERROR;<motivo>[;nome recusado...]": os recusados recebem o motivo, o resto do lote não foi aplicado
+                String[] fields = reason.split(";");
+                Set<String> rejected = new HashSet<>(Arrays.asList(fields).subList(Math.min(2, fields.length), fields.length));
+                String message = (fields.length > 1) ? fields[1] : reason;
+                for (Line line : batch) {
+                    String cause = (batch.size() == 1 || rejected.contains(line.name)) ? message : "lote não aplicado";
+                    System.err.println("[Falha] linha " + line.number + " (" + line.name + " " + line.ip + "): " + cause);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    // causa de uma falha do resolvedor, sem o CompletionException que a embrulha
+    private static String describe(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) error = error.getCause();
+        if (error instanceof TimeoutException) return "sem resposta do servidor";
+        return (error.getMessage() != null) ? error.getMessage() : String.valueOf(error);
     }
 
-    private static void processSecureResponse(String receivedLine, byte[] key) {
+    private static void processSecureResponse(SecureMessagePipeline pipeline) {
         try {
-            if (receivedLine == null) {
+            String message = pipeline.receive();
+            if (message == null) {
                 System.err.println("[Servidor Resposta] Servidor não respondeu.");
                 return;
             }
-            String[] parts = receivedLine.split("::");
-            if (parts.length != 2) {
-                System.err.println("[Servidor Resposta] ERRO: Formato inválido.");
-                return;
-            }
-            byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-            byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-
-            boolean isHmacValid = SecurityUtils.checkHmac(key, encryptedData, receivedHmac);
-            if (!isHmacValid) {
-                System.err.println("[Servidor Resposta] FALHA DE SEGURANÇA: HMAC inválido.");
-                return;
-            }
-
-            byte[] decryptedData = SecurityUtils.decrypt(key, encryptedData);
-            String message = new String(decryptedData, StandardCharsets.UTF_8);
             System.out.println("[Servidor Resposta] " + message);
+        } catch (SecurityException e) {
+            System.err.println("[Servidor Resposta] FALHA DE SEGURANÇA: " + e.getMessage());
         } catch (Exception e) {
             System.err.println("[Servidor Resposta] Erro ao processar mensagem: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+package q1;
+
+import common.BroadcastMessage;
+import common.FrameCodec;
+import common.Log;
+import common.OffenderTable;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lado primário da replicação do Mini-DNS: transmite cada UPDATE aceito, em ordem e selado com a
+ * chave compartilhada, para as réplicas conectadas na porta de replicação.
+ *
+ * Protocolo (mensagens seladas como as dos clientes):
+ *   réplica -> "REPLICATE"
+ *   primário -> "OK;REPLICATE <seq>", o estado atual em blocos "REPL_STATE;nome;ip;nome;ip..."
+ *               e "REPL_STATE_END;<seq>"; depois, para sempre:
+ *               "REPL;<seq>;<instante ms>;<nome>;<ip>[;<nome>;<ip>...]" a cada UPDATE ou lote e
+ *               "REPL_HEARTBEAT;<seq>;<instante ms>" a cada segundo.
+ *
+ * Cada REPL leva o valor atual dos nomes, lido depois da gravação: mesmo que duas atualizações do
+ * mesmo nome publiquem fora de ordem, a última mensagem sempre traz o valor final. Pelo mesmo
+ * motivo o estado inicial pode ser lido enquanto chegam atualizações. Uma réplica que não
+ * acompanha (mais de seguranca.repl.queue mensagens pendentes, padrão 100000) é desconectada e,
+ * ao reconectar, recebe o estado de novo.
+ */
+public class ReplicationPrimary {
+
+    static final long HEARTBEAT_MS = 1000;
+
+    private static final Log LOG = Log.get("Replicacao");
+    private static final int FEED_CAPACITY = Integer.getInteger("seguranca.repl.queue", 100_000);
+    // nomes e bytes por REPL_STATE, para que o bloco caiba num quadro
+    private static final int STATE_CHUNK = 500;
+    private static final int STATE_BYTES = FrameCodec.MAX_FRAME_LENGTH - 1024;
+
+    private final int port;
+    private final DnsStore store;
+    private final SecureChannelContext context;
+    private final OffenderTable offenders;
+    private final List<Feed> feeds = new CopyOnWriteArrayList<>();
+    private long seq; // guardado por this
+
+    public ReplicationPrimary(int port, DnsStore store, SecureChannelContext context, OffenderTable offenders) {
+        this.port = port;
+        this.store = store;
+        this.context = context;
+        this.offenders = offenders;
+    }
+
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        LOG.info("Replicação aguardando réplicas na porta " + port);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    if (offenders.isBlocked(socket.getInetAddress())) {
+                        socket.close();
+                        continue;
+                    }
+                    Thread.ofVirtual().name("repl-feed").start(() -> serve(socket));
+                } catch (IOException e) {
+                    LOG.error("Erro ao aceitar réplica: " + e.getMessage());
+                }
+            }
+        }, "repl-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Thread heartbeat = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(HEARTBEAT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                heartbeat();
+            }
+        }, "repl-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    public int getReplicaCount() {
+        return feeds.size();
+    }
+
+    /**
+     * Publica o valor atual dos nomes, depois que a atualização foi aplicada (e gravada) no primário.
+     */
+    public synchronized void publish(Collection<String> names) {
+        StringBuilder message = new StringBuilder("REPL;").append(++seq).append(';').append(System.currentTimeMillis());
+        for (String name : names) {
+            String ip = store.get(name);
+            if (ip != null) message.append(';').append(name).append(';').append(ip);
+        }
+        offerAll(message.toString());
+    }
+
+    private synchronized void heartbeat() {
+        offerAll("REPL_HEARTBEAT;" + seq + ";" + System.currentTimeMillis());
+    }
+
+    // guardado por this: a ordem das filas é a ordem dos seq
+    private void offerAll(String message) {
+        if (feeds.isEmpty()) return;
+        BroadcastMessage broadcast = new BroadcastMessage(message, context);
+        for (Feed feed : feeds) feed.offer(broadcast);
+    }
+
+    private void serve(Socket socket) {
+        Feed feed = null;
+        try (SecureMessagePipeline pipeline = SecureMessagePipeline.forServer(socket, context)) {
+            pipeline.attachOffenderTable(offenders);
+            String hello = pipeline.receive();
+            if (!"REPLICATE".equals(hello)) {
+                if (hello != null) pipeline.send("ERROR;Esperado REPLICATE.");
+                return;
+            }
+            long startSeq;
+            synchronized (this) {
+                startSeq = seq;
+                feed = new Feed(pipeline);
+                feeds.add(feed);
+            }
+            LOG.info("Réplica conectada: " + socket.getInetAddress() + " (a partir do registro " + startSeq + ")");
+            pipeline.send("OK;REPLICATE " + startSeq);
+            sendState(pipeline);
+            pipeline.send("REPL_STATE_END;" + startSeq);
+            feed.drain();
+        } catch (SecurityException e) {
+            LOG.warn("FALHA DE SEGURANÇA na porta de replicação: " + e.getMessage());
+        } catch (Exception e) {
+            LOG.warn("Réplica " + socket.getInetAddress() + " desconectada: " + e.getMessage());
+        } finally {
+            if (feed != null) feeds.remove(feed);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // já encerrado
+            }
+        }
+    }
+
+    // estado atual em blocos; o que mudar durante a cópia chega de novo pela fila
+    private void sendState(SecureMessagePipeline pipeline) throws IOException {
+        StringBuilder chunk = new StringBuilder("REPL_STATE");
+        int[] count = {0};
+        int[] bytes = {chunk.length()};
+        try {
+            store.forEach((name, ip) -> {
+                int entryBytes = 2 + utf8Length(name) + utf8Length(ip);
+                if (count[0] > 0 && bytes[0] + entryBytes > STATE_BYTES) {
+                    sendUnchecked(pipeline, chunk.toString());
+                    chunk.setLength("REPL_STATE".length());
+                    count[0] = 0;
+                    bytes[0] = chunk.length();
+                }
+                chunk.append(';').append(name).append(';').append(ip);
+                bytes[0] += entryBytes;
+                if (++count[0] == STATE_CHUNK) {
+                    sendUnchecked(pipeline, chunk.toString());
+                    chunk.setLength("REPL_STATE".length());
+                    count[0] = 0;
+                    bytes[0] = chunk.length();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (count[0] > 0) sendUnchecked(pipeline, chunk.toString());
+    }
+
+    private static int utf8Length(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) return text.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return text.length();
+    }
+
+    private static void sendUnchecked(SecureMessagePipeline pipeline, String message) {
+        try {
+            pipeline.send(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (Exception e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+
+    // fila de uma réplica, escrita pela sua thread virtual
+    private static final class Feed {
+        private final SecureMessagePipeline pipeline;
+        private final BlockingQueue<BroadcastMessage> queue = new ArrayBlockingQueue<>(FEED_CAPACITY);
+        private boolean dropped; // guardado pelo ReplicationPrimary
+
+        Feed(SecureMessagePipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        void offer(BroadcastMessage message) {
+            if (dropped) return;
+            if (!queue.offer(message)) {
+                dropped = true;
+                LOG.warn("Réplica atrasada demais (" + FEED_CAPACITY + " mensagens); desconectando.");
+                try {
+                    pipeline.close();
+                } catch (IOException e) {
+                    // já encerrada
+                }
+            }
+        }
+
+        void drain() throws Exception {
+            while (true) pipeline.send(queue.take());
+        }
+    }
+}
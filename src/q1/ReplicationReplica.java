@@ -0,0 +1,147 @@
+package q1;
+
+import common.Log;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lado réplica da replicação do Mini-DNS (ver ReplicationPrimary).
+ *
+ * Recebe o estado e o fluxo de atualizações do primário e os aplica ao próprio armazenamento,
+ * notificando os assinantes locais; RESOLVE e REGISTER_QUERY são atendidos aqui. UPDATEs
+ * recebidos pela réplica são encaminhados ao primário, que os valida, e voltam pelo fluxo.
+ * Se a conexão cai, reconecta e recebe o estado de novo.
+ *
+ * O atraso exposto (getLagMillis) é o tempo entre a publicação no primário e a aplicação aqui da
+ * última mensagem, acrescido do silêncio além do intervalo de heartbeat; é -1 antes da primeira
+ * sincronização. Em máquinas diferentes inclui a diferença entre os relógios.
+ */
+public class ReplicationReplica {
+
+    private static final Log LOG = Log.get("Replicacao");
+    private static final long RECONNECT_MS = 1000;
+
+    private final String primaryHost;
+    private final int primaryPort;
+    private final int replicationPort;
+    private final SecureChannelContext context;
+    private final DnsCommandProcessor processor;
+
+    private DnsResolver primary; // guardado por this; encaminhamento de UPDATE
+    private volatile long lastDelayMillis = -1;
+    private volatile long lastMessageAt;
+    private volatile long appliedSeq;
+
+    public ReplicationReplica(String primaryHost, int primaryPort, int replicationPort,
+                              SecureChannelContext context, DnsCommandProcessor processor) {
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.replicationPort = replicationPort;
+        this.context = context;
+        this.processor = processor;
+    }
+
+    public void start() {
+        Thread follower = new Thread(() -> {
+            while (true) {
+                try {
+                    follow();
+                } catch (Exception e) {
+                    LOG.warn("Replicação interrompida: " + e.getMessage() + "; reconectando.");
+                }
+                try {
+                    Thread.sleep(RECONNECT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "repl-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    public long getLagMillis() {
+        long delay = lastDelayMillis;
+        if (delay < 0) return -1;
+        long silence = System.currentTimeMillis() - lastMessageAt - ReplicationPrimary.HEARTBEAT_MS;
+        return delay + Math.max(0, silence);
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    private void follow() throws Exception {
+        try (Socket socket = new Socket(primaryHost, replicationPort);
+             SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, context)) {
+            pipeline.send("REPLICATE");
+            String accepted = pipeline.receive();
+            if (accepted == null || !accepted.startsWith("OK;REPLICATE ")) {
+                throw new IOException("Primário recusou a replicação: " + accepted);
+            }
+            LOG.info("Replicando de " + primaryHost + ":" + replicationPort + " a partir do registro "
+                    + accepted.substring("OK;REPLICATE ".length()));
+
+            String message;
+            while ((message = pipeline.receive()) != null) {
+                String[] parts = message.split(";");
+                switch (parts[0]) {
+                    case "REPL":
+                        // REPL;seq;instante;nome;ip[;nome;ip...]
+                        processor.applyReplicated(pairs(parts, 3));
+                        appliedSeq = Long.parseLong(parts[1]);
+                        observed(Long.parseLong(parts[2]));
+                        break;
+                    case "REPL_HEARTBEAT":
+                        observed(Long.parseLong(parts[2]));
+                        break;
+                    case "REPL_STATE":
+                        processor.applyReplicated(pairs(parts, 1));
+                        break;
+                    case "REPL_STATE_END":
+                        appliedSeq = Long.parseLong(parts[1]);
+                        LOG.info("Estado do primário recebido; acompanhando atualizações.");
+                        observed(System.currentTimeMillis());
+                        break;
+                    default:
+                        LOG.warn("Mensagem de replicação desconhecida: " + parts[0]);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> pairs(String[] parts, int from) {
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (int i = from; i + 1 < parts.length; i += 2) pairs.put(parts[i], parts[i + 1]);
+        return pairs;
+    }
+
+    private void observed(long primaryMillis) {
+        long now = System.currentTimeMillis();
+        lastDelayMillis = Math.max(0, now - primaryMillis);
+        lastMessageAt = now;
+    }
+
+    /**
+     * Encaminha o comando de atualização ao primário e devolve a resposta dele.
+     */
+    public String forward(String command) {
+        try {
+            return DnsResolver.await(primaryConnection().request(command));
+        } catch (IOException e) {
+            return "ERROR;Primário indisponível: " + e.getMessage();
+        }
+    }
+
+    private synchronized DnsResolver primaryConnection() throws IOException {
+        if (primary == null || primary.isClosed()) {
+            primary = new DnsResolver(new Socket(primaryHost, primaryPort), context);
+        }
+        return primary;
+    }
+}
@@ -1,69 +1,86 @@
 package q2;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.Log;
+import common.OffenderTable;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import common.ServerMetrics;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketTimeoutException;
 
+/**
+ * Atende uma conexão de cálculo: várias requisições em sequência, uma resposta para cada, até o
+ * cliente fechar ou ficar ocioso por seguranca.calc.idleMs (padrão 60000, 0 = sem limite).
+ */
 public class CalculationHandler implements Runnable {
 
+    private static final Log LOG = Log.get("CalcHandler");
+    private static final int IDLE_MS = Integer.getInteger("seguranca.calc.idleMs", 60_000);
+
     private final Socket socket;
-    private final byte[] sharedKey;
+    private final SecureChannelContext secureContext;
+    private final ServerMetrics metrics;
+    private final OffenderTable offenders;
 
-    public CalculationHandler(Socket socket, byte[] key) {
+    public CalculationHandler(Socket socket, SecureChannelContext secureContext, ServerMetrics metrics,
+                              OffenderTable offenders) {
         this.socket = socket;
-        this.sharedKey = key;
+        this.secureContext = secureContext;
+        this.metrics = metrics;
+        this.offenders = offenders;
     }
 
     @Override
     public void run() {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
-        ) {
-            String receivedLine = in.readLine();
-            if (receivedLine == null) return;
-
-            System.out.println("[CalcHandler] Mensagem de cálculo recebida (bruta): " + receivedLine);
-            try {
-                // decodificar e verificar Segurança
-                String[] parts = receivedLine.split("::");
-                if (parts.length != 2) throw new SecurityException("Formato inválido.");
-                byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-                byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-
-                // verificar HMAC
-                boolean isHmacValid = SecurityUtils.checkHmac(this.sharedKey, encryptedData, receivedHmac);
-                if (!isHmacValid) throw new SecurityException("HMAC inválido.");
-                System.out.println("[CalcHandler] HMAC verificado.");
-
-                // decifrar
-                byte[] decryptedData = SecurityUtils.decrypt(this.sharedKey, encryptedData);
-                String command = new String(decryptedData, StandardCharsets.UTF_8);
-                System.out.println("[CalcHandler] Comando decifrado: " + command);
-
-                // processar o cálculo
-                String response = calculate(command);
-
-                // enviar resposta segura
-                sendSecureMessage(out, response, this.sharedKey);
-
-            } catch (Exception e) {
-                System.err.println("[CalcHandler] Erro de segurança ou cálculo: " + e.getMessage());
+        metrics.connectionOpened();
+        try (SecureMessagePipeline pipeline = SecureMessagePipeline.forServer(socket, secureContext)) {
+            pipeline.attachMetrics(metrics);
+            pipeline.attachOffenderTable(offenders);
+            if (LOG.isRawEnabled()) pipeline.enableRawDump(LOG::info);
+            socket.setSoTimeout(IDLE_MS);
+            while (true) {
+                try {
+                    // decodificar, verificar HMAC e decifrar
+                    String command;
+                    try {
+                        command = pipeline.receive();
+                    } catch (SecurityException e) {
+                        LOG.warn("FALHA DE SEGURANÇA: " + e.getMessage() + " Mensagem descartada.");
+                        continue;
+                    }
+                    if (command == null) break;
+                    // o texto decifrado só aparece em DEBUG
+                    if (LOG.isDebugEnabled()) LOG.debug("HMAC verificado. Comando decifrado: " + command);
+
+                    // processar o cálculo
+                    long start = System.nanoTime();
+                    String response = calculate(command);
+                    metrics.record(ServerMetrics.Stage.PROCESS, System.nanoTime() - start);
+
+                    // enviar resposta segura
+                    pipeline.send(response);
+
+                } catch (SocketTimeoutException e) {
+                    if (LOG.isDebugEnabled()) LOG.debug("Conexão ociosa encerrada: " + socket.getInetAddress());
+                    break;
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    LOG.warn("Erro de segurança ou cálculo: " + e.getMessage());
+                }
             }
         } catch (Exception e) {
         } finally {
+            metrics.connectionClosed();
             try {
                 socket.close();
             } catch (Exception e) { /* ignora */ }
         }
     }
 
-    private String calculate(String command) {
+    String calculate(String command) {
         String[] parts = command.split(" ");
         if (parts.length < 3) return "ERROR;Formato inválido. Use: <OPERACAO> <n1> <n2>";
 
@@ -89,11 +106,4 @@ public class CalculationHandler implements Runnable {
             return "ERROR;Números inválidos.";
         }
     }
-
-    private void sendSecureMessage(PrintWriter out, String plainMessage, byte[] key) throws Exception {
-        byte[] data = plainMessage.getBytes(StandardCharsets.UTF_8);
-        byte[] encryptedData = SecurityUtils.encrypt(key, data);
-        byte[] hmac = SecurityUtils.calculateHmac(key, encryptedData);
-        out.println(ConverterUtils.bytes2Hex(hmac) + "::" + ConverterUtils.bytes2Hex(encryptedData));
-    }
 }
\ No newline at end of file
@@ -1,12 +1,10 @@
 package q2;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.ConnectionPool;
+import common.SecureChannelContext;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
@@ -22,6 +20,14 @@ public class CalculatorClient {
     // private static final byte[] SHARED_SECRET_KEY =
     //    "chave-errada".getBytes(StandardCharsets.UTF_8);
 
+    private static final SecureChannelContext SECURE_CONTEXT = new SecureChannelContext(SHARED_SECRET_KEY);
+
+    // conexões com o diretório e as calculadoras, reaproveitadas entre operações
+    private static final ConnectionPool CONNECTIONS = new ConnectionPool(SECURE_CONTEXT);
+
+    // servidores de cada serviço, escolhidos aqui; o diretório só é consultado quando a lista vence
+    private static final ServiceCache SERVICES = new ServiceCache(CONNECTIONS, DIR_HOST + ":" + DIR_PORT);
+
     public static void main(String[] args) {
         try (Scanner scanner = new Scanner(System.in)) {
             System.out.println("[Cliente Calc] Conectado.");
@@ -44,10 +50,22 @@ public class CalculatorClient {
                 try {
                     // descobrir o serviço
                     String serverAddress = discoverService(service);
-                    System.out.println("Serviço '" + service + "' encontrado em: " + serverAddress + " (via Round Robin)");
+                    System.out.println("Serviço '" + service + "' encontrado em: " + serverAddress + " (escolhido localmente)");
 
                     // executar o cálculo
-                    String result = executeCalculation(serverAddress, userInput);
+                    String result;
+                    try {
+                        result = executeCalculation(serverAddress, userInput);
+                    } catch (SocketTimeoutException e) {
+                        // o servidor está no ar e descartou a mensagem (ex.: chave errada): outro faria o mesmo
+                        throw new RuntimeException("Servidor de cálculo não respondeu.");
+                    } catch (IOException e) {
+                        // servidor fora do ar: sai da lista local e a operação vai para outro
+                        SERVICES.reportFailure(service, serverAddress);
+                        serverAddress = discoverService(service);
+                        System.out.println("Tentando novamente em: " + serverAddress);
+                        result = executeCalculation(serverAddress, userInput);
+                    }
                     System.out.println("Resultado: " + result);
 
                 } catch (Exception e) {
@@ -62,71 +80,33 @@ public class CalculatorClient {
     }
 
     private static String discoverService(String service) throws Exception {
-        try (
-                Socket socket = new Socket(DIR_HOST, DIR_PORT);
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
-        ) {
-            String command = "DISCOVER " + service;
-            sendSecureMessage(out, command, SHARED_SECRET_KEY);
-
-            String response = in.readLine();
-            if (response == null) throw new RuntimeException("Servidor de diretório não respondeu.");
-
-            String plainResponse = processSecureResponse(response, SHARED_SECRET_KEY, "DirServer");
-            if (plainResponse.startsWith("OK;")) {
-                return plainResponse.substring(3); // retorna o endereço
-            } else {
-                throw new RuntimeException(plainResponse);
-            }
+        try {
+            return SERVICES.pick(service); // o diretório só é consultado se a lista não está em cache
+        } catch (SecurityException e) {
+            throw new SecurityException("HMAC da resposta do diretório inválido (chave errada?).");
         }
     }
 
     private static String executeCalculation(String address, String command) throws Exception {
-        String[] addressParts = address.split(":");
-        String host = addressParts[0];
-        int port = Integer.parseInt(addressParts[1]);
-
-        try (
-                Socket socket = new Socket(host, port);
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
-        ) {
-            // envia o comando de cálculo
-            sendSecureMessage(out, command, SHARED_SECRET_KEY);
-
-            String response = in.readLine();
-            if (response == null) throw new RuntimeException("Servidor de cálculo não respondeu.");
-
-            String plainResponse = processSecureResponse(response, SHARED_SECRET_KEY, "CalcServer");
-            if (plainResponse.startsWith("OK;")) {
-                return plainResponse.substring(3); // Retorna o resultado
-            } else {
-                return plainResponse; // retorna a mensagem de erro
-            }
+        // envia o comando de cálculo
+        String plainResponse = request(address, command, "CalcServer");
+        if (plainResponse == null) throw new RuntimeException("Servidor de cálculo não respondeu.");
+
+        if (plainResponse.startsWith("OK;")) {
+            return plainResponse.substring(3); // Retorna o resultado
+        } else {
+            return plainResponse; // retorna a mensagem de erro
         }
     }
 
-    // metodos de seguranca
-    private static void sendSecureMessage(PrintWriter out, String plainMessage, byte[] key) throws Exception {
-        byte[] data = plainMessage.getBytes(StandardCharsets.UTF_8);
-        byte[] encryptedData = SecurityUtils.encrypt(key, data);
-        byte[] hmac = SecurityUtils.calculateHmac(key, encryptedData);
-        out.println(ConverterUtils.bytes2Hex(hmac) + "::" + ConverterUtils.bytes2Hex(encryptedData));
-    }
-
-    private static String processSecureResponse(String receivedLine, byte[] key, String serverName) throws Exception {
+    // envia pela conexão do pool para o endereço e espera a resposta
+    private static String request(String address, String command, String serverName) throws Exception {
         try {
-            String[] parts = receivedLine.split("::");
-            if (parts.length != 2) throw new SecurityException("Formato de resposta inválido.");
-            byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-            byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-
-            if (!SecurityUtils.checkHmac(key, encryptedData, receivedHmac)) {
+            try {
+                return CONNECTIONS.request(address, command);
+            } catch (SecurityException e) {
                 throw new SecurityException("HMAC da resposta inválido (chave errada?).");
             }
-            byte[] decryptedData = SecurityUtils.decrypt(key, encryptedData);
-            return new String(decryptedData, StandardCharsets.UTF_8);
         } catch (Exception e) {
             System.err.println("[" + serverName + " Resposta] Erro ao processar resposta: " + e.getMessage());
             throw e;
@@ -1,14 +1,14 @@
 package q2;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.ConnectionExecutor;
+import common.Log;
+import common.OffenderTable;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import common.ServerMetrics;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 
 public class CalculatorServer {
 
@@ -16,9 +16,17 @@ public class CalculatorServer {
     private static final int DIR_PORT = 12346;
     private final int port;
     private final String myAddress;
+    private final SecureChannelContext secureContext = new SecureChannelContext(DirectoryServer.SHARED_SECRET_KEY);
+    private final ServerMetrics metrics;
+    private final Log log;
+    private final OffenderTable offenders = new OffenderTable();
+    private final ConnectionExecutor connections;
 
     public CalculatorServer(int port) {
         this.port = port;
+        this.metrics = ServerMetrics.register("Calculator-" + port);
+        this.log = Log.get("CalcServer-" + port);
+        this.connections = new ConnectionExecutor("calc-conn", metrics);
         String myIp = "172.17.232.64";
         this.myAddress = myIp + ":" + port;
     }
@@ -46,15 +54,14 @@ public class CalculatorServer {
         for (String service : services) {
             try (
                     Socket socket = new Socket(DIR_HOST, DIR_PORT);
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+                    SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, secureContext)
             ) {
                 String command = "REGISTER " + service + " " + myAddress;
-                sendSecureMessage(out, command, DirectoryServer.SHARED_SECRET_KEY);
+                pipeline.send(command);
 
-                String response = in.readLine();
+                String response = pipeline.receive();
                 if (response != null) {
-                    processSecureResponse(response, DirectoryServer.SHARED_SECRET_KEY, "DirServer");
+                    System.out.println("[DirServer Resposta] " + response);
                 }
             } catch (Exception e) {
                 System.err.println("[CalcServer-" + port + "] Erro ao registrar " + service + ": " + e.getMessage());
@@ -68,40 +75,25 @@ public class CalculatorServer {
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("[CalcServer-" + port + "] Cliente de cálculo conectado: " + clientSocket.getInetAddress());
+                if (offenders.isBlocked(clientSocket.getInetAddress())) {
+                    // endereço com falhas de autenticação demais: recusa antes de ler qualquer byte
+                    metrics.connectionRejected();
+                    clientSocket.close();
+                    continue;
+                }
+                log.info("Cliente de cálculo conectado: " + clientSocket.getInetAddress());
 
-                // cria uma nova thread para o cálculo
+                // atende o cálculo numa thread do executor de conexões
                 CalculationHandler handler = new CalculationHandler(
                         clientSocket,
-                        DirectoryServer.SHARED_SECRET_KEY
+                        secureContext,
+                        metrics,
+                        offenders
                 );
-                Thread clientThread = new Thread(handler);
-                clientThread.start();
+                connections.execute(clientSocket, handler);
             }
         } catch (Exception e) {
             System.err.println("[CalcServer-" + port + "] Erro no serviço de cálculo: " + e.getMessage());
         }
     }
-
-    private void sendSecureMessage(PrintWriter out, String plainMessage, byte[] key) throws Exception {
-        byte[] data = plainMessage.getBytes(StandardCharsets.UTF_8);
-        byte[] encryptedData = SecurityUtils.encrypt(key, data);
-        byte[] hmac = SecurityUtils.calculateHmac(key, encryptedData);
-        out.println(ConverterUtils.bytes2Hex(hmac) + "::" + ConverterUtils.bytes2Hex(encryptedData));
-    }
-
-    private void processSecureResponse(String receivedLine, byte[] key, String serverName) {
-        try {
-            String[] parts = receivedLine.split("::");
-            if (parts.length != 2) return;
-            byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-            byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-            if (!SecurityUtils.checkHmac(key, encryptedData, receivedHmac)) return;
-            byte[] decryptedData = SecurityUtils.decrypt(key, encryptedData);
-            String message = new String(decryptedData, StandardCharsets.UTF_8);
-            System.out.println("[" + serverName + " Resposta] " + message);
-        } catch (Exception e) {
-
-        }
-    }
 }
\ No newline at end of file
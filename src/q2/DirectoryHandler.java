@@ -1,83 +1,100 @@
 package q2;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.Log;
+import common.OffenderTable;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import common.ServerMetrics;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Atende uma conexão com o Servidor de Diretório.
+ *
+ * Comandos:
+ *   REGISTER <servico> <host:porta>      enviado por um CalculatorServer
+ *   DISCOVER <servico>                   um endereço, escolhido por round robin aqui
+ *   DISCOVER_ALL <servico> [versão]      todos os endereços, "OK;<versão>;end1;end2...", para o
+ *                                        cliente escolher sozinho; com a versão que o cliente já
+ *                                        tem e sem mudança desde então, só "OK;UNCHANGED;<versão>"
+ */
 public class DirectoryHandler implements Runnable {
 
+    private static final Log LOG = Log.get("DirHandler");
+
     private final Socket socket;
     private final Map<String, List<String>> serviceMap;
     private final Map<String, Integer> roundRobinMap;
-    private final byte[] sharedKey;
-
-    public DirectoryHandler(Socket socket, Map<String, List<String>> serviceMap, Map<String, Integer> roundRobinMap, byte[] key) {
+    private final AtomicLong topologyVersion;
+    private final SecureChannelContext secureContext;
+    private final ServerMetrics metrics;
+    private final OffenderTable offenders;
+
+    public DirectoryHandler(Socket socket, Map<String, List<String>> serviceMap, Map<String, Integer> roundRobinMap,
+                            AtomicLong topologyVersion, SecureChannelContext secureContext, ServerMetrics metrics,
+                            OffenderTable offenders) {
         this.socket = socket;
         this.serviceMap = serviceMap;
         this.roundRobinMap = roundRobinMap;
-        this.sharedKey = key;
+        this.topologyVersion = topologyVersion;
+        this.secureContext = secureContext;
+        this.metrics = metrics;
+        this.offenders = offenders;
     }
 
     @Override
     public void run() {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
-        ) {
-            String receivedLine;
-            while ((receivedLine = in.readLine()) != null) {
-                System.out.println("\n[DirHandler] Mensagem recebida (bruta): " + receivedLine);
+        metrics.connectionOpened();
+        try (SecureMessagePipeline pipeline = SecureMessagePipeline.forServer(socket, secureContext)) {
+            pipeline.attachMetrics(metrics);
+            pipeline.attachOffenderTable(offenders);
+            if (LOG.isRawEnabled()) pipeline.enableRawDump(LOG::info);
+            while (true) {
                 try {
-                    // decodificar e verificar segurança
-                    String[] parts = receivedLine.split("::");
-                    if (parts.length != 2) {
-                        System.err.println("[DirHandler] ERRO: Formato inválido. Descartando.");
-                        continue;
-                    }
-                    byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-                    byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-
-                    // verificar HMAC
-                    boolean isHmacValid = SecurityUtils.checkHmac(this.sharedKey, encryptedData, receivedHmac);
-                    if (!isHmacValid) {
-                        System.err.println("[DirHandler] FALHA DE SEGURANÇA: HMAC inválido. Mensagem descartada.");
+                    // decodificar, verificar e decifrar (quadro binário ou linha legada)
+                    String command;
+                    try {
+                        command = pipeline.receive();
+                    } catch (SecurityException e) {
+                        LOG.warn("FALHA DE SEGURANÇA: " + e.getMessage() + " Mensagem descartada.");
                         continue; // requisito o servidor deve descartar a mensagem
                     }
-                    System.out.println("[DirHandler] HMAC verificado com sucesso.");
-
-                    // decifrar
-                    byte[] decryptedData = SecurityUtils.decrypt(this.sharedKey, encryptedData);
-                    String command = new String(decryptedData, StandardCharsets.UTF_8);
-                    System.out.println("[DirHandler] Comando decifrado: " + command);
+                    if (command == null) break;
+                    // o texto decifrado só aparece em DEBUG
+                    if (LOG.isDebugEnabled()) LOG.debug("HMAC verificado. Comando decifrado: " + command);
 
                     // processar o comando
+                    long start = System.nanoTime();
                     String response = processCommand(command);
+                    metrics.record(ServerMetrics.Stage.PROCESS, System.nanoTime() - start);
 
                     // enviar resposta segura
-                    sendSecureMessage(out, response, this.sharedKey);
+                    pipeline.send(response);
 
+                } catch (IOException e) {
+                    throw e;
                 } catch (Exception e) {
-                    System.err.println("[DirHandler] Erro ao processar mensagem: " + e.getMessage());
+                    LOG.error("Erro ao processar mensagem: " + e.getMessage());
                 }
             }
         } catch (Exception e) {
             // Silencioso
         } finally {
+            metrics.connectionClosed();
             try {
                 socket.close();
             } catch (Exception e) { /* ignora */ }
         }
     }
 
-    private String processCommand(String command) {
+    String processCommand(String command) {
         String[] parts = command.split(" ");
         String operation = parts[0].toUpperCase();
 
@@ -90,7 +107,8 @@ public class DirectoryHandler implements Runnable {
                         java.util.Collections.synchronizedList(new ArrayList<>())
                 ).add(address);
                 roundRobinMap.putIfAbsent(service, 0);
-                System.out.println("[DirHandler] Serviço registrado: " + service + " em " + address);
+                topologyVersion.incrementAndGet();
+                LOG.info("Serviço registrado: " + service + " em " + address);
                 return "OK;Serviço " + service + " registrado em " + address;
 
             case "DISCOVER":
@@ -104,18 +122,26 @@ public class DirectoryHandler implements Runnable {
                 // logica do roundrobin
                 int index = roundRobinMap.compute(serviceToFind, (k, v) -> (v == null) ? 0 : (v + 1));
                 String chosenServer = servers.get(index % servers.size());
-                System.out.println("[DirHandler] Descoberta: " + serviceToFind + " -> " + chosenServer + " (Round Robin)");
+                LOG.info("Descoberta: " + serviceToFind + " -> " + chosenServer + " (Round Robin)");
                 return "OK;" + chosenServer;
 
+            case "DISCOVER_ALL": // lista completa, para o cliente guardar e balancear localmente
+                if (parts.length < 2) return "ERROR;Formato inválido. Use: DISCOVER_ALL <servico> [versão]";
+                String serviceToList = parts[1].toUpperCase();
+                // lida antes da lista: se um REGISTER chegar no meio, o cliente pede de novo depois
+                long version = topologyVersion.get();
+                if (parts.length > 2 && parts[2].equals(Long.toString(version))) return "OK;UNCHANGED;" + version;
+                List<String> registered = serviceMap.get(serviceToList);
+                if (registered == null) return "ERROR;Serviço não encontrado: " + serviceToList;
+                Set<String> addresses;
+                synchronized (registered) {
+                    addresses = new LinkedHashSet<>(registered); // um servidor registrado duas vezes conta uma
+                }
+                if (addresses.isEmpty()) return "ERROR;Serviço não encontrado: " + serviceToList;
+                return "OK;" + version + ";" + String.join(";", addresses);
+
             default:
                 return "ERROR;Comando desconhecido: " + operation;
         }
     }
-
-    private void sendSecureMessage(PrintWriter out, String plainMessage, byte[] key) throws Exception {
-        byte[] data = plainMessage.getBytes(StandardCharsets.UTF_8);
-        byte[] encryptedData = SecurityUtils.encrypt(key, data);
-        byte[] hmac = SecurityUtils.calculateHmac(key, encryptedData);
-        out.println(ConverterUtils.bytes2Hex(hmac) + "::" + ConverterUtils.bytes2Hex(encryptedData));
-    }
 }
\ No newline at end of file
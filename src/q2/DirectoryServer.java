@@ -1,38 +1,67 @@
 package q2;
 
+import common.ConnectionExecutor;
+import common.Log;
+import common.OffenderTable;
+import common.SecureChannelContext;
+import common.ServerMetrics;
+
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DirectoryServer {
 
+    private static final Log LOG = Log.get("DirServer");
     private static final int PORT = 12346;
     private final Map<String, List<String>> serviceMap = new ConcurrentHashMap<>();
     private final Map<String, Integer> roundRobinMap = new ConcurrentHashMap<>();
+    // versão da topologia: muda a cada REGISTER, para os clientes saberem se a lista em cache vale
+    private final AtomicLong topologyVersion = new AtomicLong();
 
     // Chave secreta COMPARTILHADA
     public static final byte[] SHARED_SECRET_KEY =
             "chave-secreta-super-segura".getBytes(StandardCharsets.UTF_8);
 
+    private final SecureChannelContext secureContext = new SecureChannelContext(SHARED_SECRET_KEY);
+
+    // latências por estágio e contadores, exportados via JMX
+    private final ServerMetrics metrics = ServerMetrics.register("Directory");
+
+    // threads que atendem as conexões (seguranca.exec.*)
+    private final ConnectionExecutor connections = new ConnectionExecutor("dir-conn", metrics);
+
+    // falhas de autenticação por endereço de origem
+    private final OffenderTable offenders = new OffenderTable();
+
     public void start() {
         System.out.println("[DirServer] Servidor de Diretório (Seguro) iniciado na porta " + PORT);
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("[DirServer] Novo cliente conectado: " + clientSocket.getInetAddress());
+                if (offenders.isBlocked(clientSocket.getInetAddress())) {
+                    // endereço com falhas de autenticação demais: recusa antes de ler qualquer byte
+                    metrics.connectionRejected();
+                    clientSocket.close();
+                    continue;
+                }
+                LOG.info("Novo cliente conectado: " + clientSocket.getInetAddress());
 
-                // cria uma nova thread para lidar com o cliente
+                // atende o cliente numa thread do executor de conexões
                 DirectoryHandler handler = new DirectoryHandler(
                         clientSocket,
                         serviceMap,
                         roundRobinMap,
-                        SHARED_SECRET_KEY
+                        topologyVersion,
+                        secureContext,
+                        metrics,
+                        offenders
                 );
-                Thread clientThread = new Thread(handler);
-                clientThread.start();
+                connections.execute(clientSocket, handler);
             }
         } catch (Exception e) {
             System.err.println("[DirServer] Erro ao iniciar: " + e.getMessage());
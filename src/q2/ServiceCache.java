@@ -0,0 +1,125 @@
+package q2;
+
+import common.ConnectionPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lista de servidores de cada serviço guardada no cliente, obtida do diretório com DISCOVER_ALL, e
+ * escolha local do servidor (round robin ou aleatória) a cada operação.
+ *
+ * O diretório só é consultado na primeira vez que um serviço é pedido e quando a lista passa de
+ * ttl: a lista antiga continua em uso enquanto uma thread de fundo pergunta, com a versão que o
+ * cliente tem, se a topologia mudou ("UNCHANGED" é a resposta comum). Se o diretório estiver fora,
+ * a lista antiga continua valendo. Um servidor que falhou deixa de ser escolhido até a próxima
+ * conferência com o diretório; se todos falharem, a lista é pedida de novo na hora.
+ *
+ * Configuração por propriedades de sistema:
+ *   seguranca.discovery.ttlMs=N                validade da lista antes de conferir no diretório (padrão 30000)
+ *   seguranca.discovery.balance=roundrobin|random  escolha do servidor (padrão roundrobin)
+ */
+public class ServiceCache {
+
+    private static final long TTL_NANOS = Long.getLong("seguranca.discovery.ttlMs", 30_000L) * 1_000_000L;
+    private static final boolean RANDOM = "random".equalsIgnoreCase(System.getProperty("seguranca.discovery.balance"));
+
+    private static final class Servers {
+        final long version;
+        final List<String> registered; // como veio do diretório
+        final List<String> addresses;  // sem os que falharam; imutável, uma falha troca a entrada inteira
+        final long fetchedAt;          // System.nanoTime()
+        final AtomicInteger next;
+
+        Servers(long version, List<String> registered, List<String> addresses, long fetchedAt, AtomicInteger next) {
+            this.version = version;
+            this.registered = registered;
+            this.addresses = addresses;
+            this.fetchedAt = fetchedAt;
+            this.next = next;
+        }
+    }
+
+    private final ConnectionPool connections;
+    private final String directoryAddress;
+    private final Map<String, Servers> services = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "discovery-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ServiceCache(ConnectionPool connections, String directoryAddress) {
+        this.connections = connections;
+        this.directoryAddress = directoryAddress;
+    }
+
+    /**
+     * Endereço "host:porta" de um servidor do serviço. Só espera pelo diretório se o serviço ainda
+     * não está em cache (ou todos os servidores dele falharam).
+     */
+    public String pick(String service) throws Exception {
+        Servers servers = services.get(service);
+        if (servers == null || servers.addresses.isEmpty()) {
+            servers = fetch(service, null);
+        } else if (System.nanoTime() - servers.fetchedAt > TTL_NANOS) {
+            refreshInBackground(service);
+        }
+        List<String> addresses = servers.addresses;
+        int index = RANDOM ? ThreadLocalRandom.current().nextInt(addresses.size())
+                : Math.floorMod(servers.next.getAndIncrement(), addresses.size());
+        return addresses.get(index);
+    }
+
+    // deixa de escolher o servidor até a próxima conferência com o diretório
+    public void reportFailure(String service, String address) {
+        services.computeIfPresent(service, (k, servers) -> {
+            List<String> remaining = new ArrayList<>(servers.addresses);
+            if (!remaining.remove(address)) return servers;
+            return new Servers(servers.version, servers.registered, List.copyOf(remaining), servers.fetchedAt, servers.next);
+        });
+    }
+
+    private void refreshInBackground(String service) {
+        if (refreshing.putIfAbsent(service, Boolean.TRUE) != null) return;
+        refresher.execute(() -> {
+            try {
+                fetch(service, services.get(service));
+            } catch (Exception e) {
+                // diretório indisponível: a lista atual continua em uso e a próxima consulta tenta de novo
+            } finally {
+                refreshing.remove(service);
+            }
+        });
+    }
+
+    // "OK;<versão>;end1;end2..." ou, se a versão enviada ainda vale, "OK;UNCHANGED;<versão>"
+    private Servers fetch(String service, Servers known) throws Exception {
+        String command = "DISCOVER_ALL " + service;
+        if (known != null) command += " " + known.version;
+        String response = connections.request(directoryAddress, command);
+        if (response == null) throw new IOException("Servidor de diretório não respondeu.");
+        if (!response.startsWith("OK;")) throw new RuntimeException(response);
+
+        String[] parts = response.split(";");
+        Servers servers;
+        if (parts[1].equals("UNCHANGED")) {
+            servers = new Servers(known.version, known.registered, known.registered, System.nanoTime(), known.next);
+        } else {
+            AtomicInteger next = (known != null) ? known.next : new AtomicInteger();
+            List<String> registered = List.copyOf(Arrays.asList(parts).subList(2, parts.length));
+            servers = new Servers(Long.parseLong(parts[1]), registered, registered, System.nanoTime(), next);
+        }
+        services.put(service, servers);
+        return servers;
+    }
+}
@@ -1,12 +1,10 @@
 package q3;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.Log;
+import common.SecureMessagePipeline;
+import common.ServerMetrics;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 
 public class NodeHandler implements Runnable {
 
@@ -20,38 +18,32 @@ public class NodeHandler implements Runnable {
 
     @Override
     public void run() {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
-        ) {
-            String receivedLine = in.readLine();
-            if (receivedLine == null) return;
-
-            node.log("Mensagem recebida (bruta): " + receivedLine);
-
-            String[] parts = receivedLine.split("::");
-            if (parts.length != 2) {
-                node.log("ERRO: Formato de segurança inválido. Descartando.");
-                return;
-            }
-            byte[] receivedHmac = ConverterUtils.hex2Bytes(parts[0]);
-            byte[] encryptedData = ConverterUtils.hex2Bytes(parts[1]);
-
-            boolean isHmacValid = SecurityUtils.checkHmac(P2PNode.SHARED_SECRET_KEY, encryptedData, receivedHmac);
-            if (!isHmacValid) {
-                node.log("FALHA DE SEGURANÇA: HMAC inválido (chave errada?). Mensagem descartada.");
+        ServerMetrics metrics = node.getMetrics();
+        Log log = node.getLogger();
+        metrics.connectionOpened();
+        try (SecureMessagePipeline pipeline = SecureMessagePipeline.forServer(socket, P2PNode.SECURE_CONTEXT)) {
+            if (log.isRawEnabled()) pipeline.enableRawDump(log::info);
+            pipeline.attachMetrics(metrics);
+
+            String payload;
+            try {
+                payload = pipeline.receive();
+            } catch (SecurityException e) {
+                log.warn("FALHA DE SEGURANÇA: " + e.getMessage() + " (chave errada?) Mensagem descartada.");
                 return;
             }
-            node.log("HMAC verificado com sucesso.");
-
-            byte[] decryptedData = SecurityUtils.decrypt(P2PNode.SHARED_SECRET_KEY, encryptedData);
-            String payload = new String(decryptedData, StandardCharsets.UTF_8);
-            node.log("Mensagem decifrada: " + payload);
+            if (payload == null) return;
+            // o texto decifrado só aparece em DEBUG
+            if (log.isDebugEnabled()) log.debug("HMAC verificado. Mensagem decifrada: " + payload);
 
+            long start = System.nanoTime();
             node.processMessage(payload);
+            metrics.record(ServerMetrics.Stage.PROCESS, System.nanoTime() - start);
 
         } catch (Exception e) {
-            node.log("ERRO no Handler: " + e.getMessage());
+            log.error("ERRO no Handler: " + e.getMessage());
         } finally {
+            metrics.connectionClosed();
             try {
                 socket.close();
             } catch (Exception e) {
@@ -1,12 +1,14 @@
 package q3;
 
-import common.ConverterUtils;
-import common.SecurityUtils;
+import common.ConnectionExecutor;
+import common.Log;
+import common.ProtectionMode;
+import common.SecureChannelContext;
+import common.SecureMessagePipeline;
+import common.ServerMetrics;
+import common.WireFormat;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
@@ -24,6 +26,9 @@ public class P2PNode {
     private final int predecessorPort;
     private final String myIp;
     private final Set<String> localFiles = new HashSet<>();
+    private final ServerMetrics metrics;
+    private final ConnectionExecutor connections;
+    private final Log logger;
 
     // chave secreta
     public static final byte[] SHARED_SECRET_KEY =
@@ -33,6 +38,13 @@ public class P2PNode {
     // public static final byte[] SHARED_SECRET_KEY =
     //    "chave-errada-do-intruso".getBytes(StandardCharsets.UTF_8);
 
+    // contexto criptográfico compartilhado pelo nó e seus handlers
+    static final SecureChannelContext SECURE_CONTEXT = new SecureChannelContext(SHARED_SECRET_KEY);
+
+    // formato e modo de proteção usados ao enviar para os vizinhos
+    private static final WireFormat WIRE_FORMAT = WireFormat.clientDefault();
+    private static final ProtectionMode PROTECTION_MODE = ProtectionMode.clientDefault(WIRE_FORMAT);
+
     public P2PNode(String nodeId, int port, String successorHost, int successorPort,
                    String predecessorHost, int predecessorPort, String myIp) {
         this.nodeId = nodeId;
@@ -42,6 +54,9 @@ public class P2PNode {
         this.predecessorHost = predecessorHost;
         this.predecessorPort = predecessorPort;
         this.myIp = myIp;
+        this.logger = Log.get(nodeId);
+        this.metrics = ServerMetrics.register("P2P-" + nodeId);
+        this.connections = new ConnectionExecutor("p2p-conn", metrics);
         this.initializeFiles();
     }
 
@@ -104,7 +119,7 @@ public class P2PNode {
         try (ServerSocket server = new ServerSocket(port)) {
             while (true) {
                 Socket client = server.accept();
-                new Thread(new NodeHandler(client, this)).start();
+                connections.execute(client, new NodeHandler(client, this));
             }
         } catch (IOException e) {
             log("Erro no servidor: " + e.getMessage());
@@ -115,7 +130,8 @@ public class P2PNode {
         try {
             String[] parts = plainPayload.split(";");
             if (parts.length < 6) {
-                log("Mensagem mal formatada (pós-decr.): " + plainPayload);
+                log("Mensagem mal formatada (pós-decr.): " + parts.length + " campos.");
+                if (logger.isDebugEnabled()) logger.debug("Mensagem mal formatada: " + plainPayload);
                 return;
             }
 
@@ -152,31 +168,33 @@ public class P2PNode {
     }
 
     public void sendSecureMessage(String host, int port, String plainPayload) {
-        log("Enviando (seguro): " + plainPayload + " para " + host + ":" + port);
+        log("Enviando (seguro) para " + host + ":" + port);
+        // o conteúdo em claro só aparece em DEBUG
+        if (logger.isDebugEnabled()) logger.debug("Conteúdo enviado: " + plainPayload);
         try {
-            byte[] data = plainPayload.getBytes(StandardCharsets.UTF_8);
-            byte[] encryptedData = SecurityUtils.encrypt(SHARED_SECRET_KEY, data);
-            byte[] hmac = SecurityUtils.calculateHmac(SHARED_SECRET_KEY, encryptedData);
-
-            String hmacHex = ConverterUtils.bytes2Hex(hmac);
-            String encryptedHex = ConverterUtils.bytes2Hex(encryptedData);
-
-            sendRawMessage(host, port, hmacHex + "::" + encryptedHex);
-
+            sendRawMessage(host, port, plainPayload);
         } catch (Exception e) {
             log("Erro ao criptografar ou enviar mensagem: " + e.getMessage());
         }
     }
 
-    private void sendRawMessage(String host, int port, String rawPayload) {
+    private void sendRawMessage(String host, int port, String plainPayload) {
         try (Socket socket = new Socket(host, port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            out.println(rawPayload);
+             SecureMessagePipeline pipeline = SecureMessagePipeline.forClient(socket, SECURE_CONTEXT, WIRE_FORMAT, PROTECTION_MODE)) {
+            pipeline.send(plainPayload);
         } catch (Exception e) {
             log("Erro enviando mensagem bruta: " + e.getMessage());
         }
     }
 
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    Log getLogger() {
+        return logger;
+    }
+
     private boolean isResponsible(String file) {
         try {
             int idNum = Integer.parseInt(nodeId.replace("P", ""));
@@ -198,7 +216,8 @@ public class P2PNode {
         log("Arquivos locais (simulados): " + min + " a " + max);
     }
 
+    // horário e escrita ficam com a thread do Log
     public void log(String msg) {
-        System.out.println("[" + nodeId + " | " + java.time.LocalTime.now() + "] " + msg);
+        logger.info(msg);
     }
 }
\ No newline at end of file